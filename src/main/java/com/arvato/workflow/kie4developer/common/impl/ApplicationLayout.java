@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The resolved layout of the running application: either a fat-jar or the compiled classes of the project (e.g. when
+ * running in the IDE). The layout is resolved once and shared by all file lookups.
+ *
+ * @author TRIBE01
+ */
+public class ApplicationLayout {
+
+  private final boolean fatJar;
+  private final File fatJarFile;
+  private final Map<String, String> libJars;
+  private final Supplier<File> rootSupplier;
+  private File root;
+
+  /**
+   * Create the layout
+   *
+   * @param fatJar       <code>true</code> if running as fat-jar
+   * @param fatJarFile   the fat-jar file or <code>null</code>
+   * @param libJars      the nested lib jars of the fat-jar as [jar file name:entry name]
+   * @param rootSupplier supplier of the project root dir, returns <code>null</code> if the root dir is not available
+   */
+  public ApplicationLayout(boolean fatJar, File fatJarFile, Map<String, String> libJars, Supplier<File> rootSupplier) {
+    this.fatJar = fatJar;
+    this.fatJarFile = fatJarFile;
+    this.libJars = Collections.unmodifiableMap(libJars);
+    this.rootSupplier = rootSupplier;
+  }
+
+  /**
+   * Check if the application runs as fat-jar
+   *
+   * @return <code>true</code> if running as fat-jar, <code>false</code> if running in IDE
+   */
+  public boolean isFatJar() {
+    return fatJar;
+  }
+
+  /**
+   * Get the fat-jar as file
+   *
+   * @return the fat-jar file or <code>null</code> if not running as fat-jar
+   */
+  public File getFatJarFile() {
+    return fatJarFile;
+  }
+
+  /**
+   * Get the nested lib jars of the fat-jar
+   *
+   * @return the lib jars as [jar file name:entry name], empty if not running as fat-jar
+   */
+  public Map<String, String> getLibJars() {
+    return libJars;
+  }
+
+  /**
+   * Get the project root dir. When running as fat-jar this is the extracted fat-jar, which gets extracted on first
+   * access only and again if the extracted dir was deleted meanwhile.
+   *
+   * @return the project root dir
+   * @throws IllegalStateException if the root dir is not available
+   */
+  public synchronized File getRoot() {
+    if (root == null || !root.exists()) {
+      root = rootSupplier.get();
+      if (root == null) {
+        throw new IllegalStateException("Project root dir not available" + (fatJar ? ", could not extract " + fatJarFile : ""));
+      }
+    }
+    return root;
+  }
+}
@@ -16,21 +16,34 @@
 package com.arvato.workflow.kie4developer.common.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.building.DefaultModelBuilder;
 import org.apache.maven.model.building.DefaultModelBuilderFactory;
 import org.apache.maven.model.building.DefaultModelBuildingRequest;
 import org.apache.maven.model.building.ModelBuildingException;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
 import org.apache.maven.model.resolution.ModelResolver;
 import org.apache.maven.project.ProjectBuildingRequest;
 import org.apache.maven.project.ProjectModelResolver;
@@ -41,6 +54,7 @@ import org.apache.maven.settings.Server;
 import org.apache.maven.settings.Settings;
 import org.apache.maven.settings.crypto.SettingsDecryptionResult;
 import org.apache.maven.settings.io.DefaultSettingsReader;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 import org.eclipse.aether.DefaultRepositorySystemSession;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RequestTrace;
@@ -75,21 +89,36 @@ import org.springframework.stereotype.Component;
 public class EffectivePomReader {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(EffectivePomReader.class);
+  /**
+   * Classpath location of the effective pom snapshot created at package time
+   */
+  public static final String SNAPSHOT_RESOURCE = "META-INF/kie4developer/effective-pom.xml";
+  /**
+   * Model property that holds the hash of the pom.xml a snapshot was resolved from
+   */
+  public static final String POM_HASH_PROPERTY = "kie4developer.pom.sha256";
   private FileSystemUtils fileSystemUtils;
   private Path mavenRepository;
   private Path mavenSettings;
+  private boolean offline;
+  private Path cacheDir;
   private Model cachedModel;
 
   public EffectivePomReader(FileSystemUtils fileSystemUtils, @Value("${maven.repository}") String mavenRepository,
-      @Value("${maven.settings}") String mavenSettings) {
+      @Value("${maven.settings}") String mavenSettings, @Value("${maven.offline}") boolean offline,
+      @Value("${maven.effectivepom.cache.dir}") String cacheDir) {
     this.fileSystemUtils = fileSystemUtils;
     this.mavenRepository = Paths.get(mavenRepository);
     this.mavenSettings = Paths.get(mavenSettings);
+    this.offline = offline;
+    this.cacheDir = Paths.get(cacheDir);
     this.cachedModel = null;
   }
 
   /**
-   * Get the effective pom.xml
+   * Get the effective pom.xml. The model is taken from the snapshot created at package time or from a previous
+   * resolution as long as the pom.xml is unchanged. Only otherwise the model gets resolved against the maven
+   * repositories.
    *
    * @return the resolved maven model or <code>null</code>
    */
@@ -100,8 +129,10 @@ public class EffectivePomReader {
 
     File pomFile;
     if (fileSystemUtils.runAsFatJar()) {
-      pomFile = fileSystemUtils.getFile(Paths.get("META-INF", "maven")).listFiles()[0].listFiles()[0].toPath()
-          .resolve("pom.xml").toFile();
+      pomFile = readPomFromFatJar();
+      if (pomFile == null) {
+        return null;
+      }
     } else {
       pomFile = fileSystemUtils.getFile(Paths.get("pom.xml"));
       if (!pomFile.exists()){
@@ -116,80 +147,187 @@ public class EffectivePomReader {
     }
 
     try {
-      DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
-      locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
-      locator.addService(TransporterFactory.class, FileTransporterFactory.class);
-      locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
-      locator.addService(TransporterFactory.class, WagonTransporterFactory.class);
-
-      RepositorySystem system = locator.getService(RepositorySystem.class);
-      DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
-      LocalRepository localRepo = new LocalRepository(mavenRepository.toFile());
-      session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, localRepo));
-
-      RequestTrace requestTrace = new RequestTrace(null);
-      RemoteRepositoryManager remoteRepositoryManager = locator.getService(RemoteRepositoryManager.class);
-      List<RemoteRepository> repos = new ArrayList<>();
-
-      // load profile from settings.xml
-      File mavenSettingsFile = mavenSettings.toFile();
-      if (mavenSettingsFile.exists()) {
-        Settings settings = new DefaultSettingsReader().read(mavenSettingsFile, Collections.emptyMap());
-        String activeProfile = null;
-        if (settings.getActiveProfiles().isEmpty()) {
-          for (Profile profile : settings.getProfiles()) {
-            if (profile.getActivation() != null && profile.getActivation().isActiveByDefault()) {
-              activeProfile = profile.getId();
-            }
+      String pomHash = sha256(pomFile);
+
+      // use the snapshot created at package time
+      URL snapshot = getClass().getClassLoader().getResource(SNAPSHOT_RESOURCE);
+      if (snapshot != null) {
+        try (InputStream is = snapshot.openStream()) {
+          Model snapshotModel = new MavenXpp3Reader().read(is, false);
+          if (pomHash.equals(snapshotModel.getProperties().getProperty(POM_HASH_PROPERTY))) {
+            LOGGER.debug("Using effective pom snapshot {}", snapshot);
+            cachedModel = snapshotModel;
+            return cachedModel;
           }
-        } else {
-          activeProfile = settings.getActiveProfiles().get(0);
+          LOGGER.info("Effective pom snapshot {} is outdated", snapshot);
         }
+      }
 
-        if (activeProfile != null) {
-          List<Repository> profileRepositories = settings.getProfilesAsMap().get(activeProfile).getRepositories();
-          repos = profileRepositories.stream()
-              .map(profileRepository -> {
-                Builder builder = new RemoteRepository.Builder(profileRepository.getId(), "default",
-                    profileRepository.getUrl());
-                Optional<Server> profileServer = settings.getServers().stream()
-                    .filter(s -> s.getId().equalsIgnoreCase(profileRepository.getId())).findFirst();
-                if (profileServer.isPresent()) {
-                  Authentication auth = new AuthenticationBuilder().addUsername(profileServer.get().getUsername())
-                      .addPassword(profileServer.get().getPassword()).build();
-                  builder.setAuthentication(auth);
-                }
-                return builder.build();
-              })
-              .collect(Collectors.toList());
+      // use the model of a previous resolution
+      File cachedModelFile = cacheDir.resolve(pomHash + ".xml").toFile();
+      if (cachedModelFile.exists()) {
+        try (InputStream is = new FileInputStream(cachedModelFile)) {
+          LOGGER.debug("Using cached effective pom {}", cachedModelFile);
+          cachedModel = new MavenXpp3Reader().read(is, false);
+          return cachedModel;
+        }
+      }
+
+      cachedModel = resolve(pomFile, mavenRepository, mavenSettings, offline);
+      writeModel(cachedModel, pomHash, cachedModelFile);
+    } catch (ModelBuildingException | XmlPullParserException | IOException e) {
+      LOGGER.error("Error while resolving pom.xml", e);
+    }
+    return cachedModel;
+  }
+
+  /**
+   * Read the pom.xml of the project from the fat-jar without extracting the fat-jar
+   *
+   * @return a temp file with the content of the pom.xml or <code>null</code> if not found
+   */
+  private File readPomFromFatJar() {
+    File fatJarFile = fileSystemUtils.getApplicationLayout().getFatJarFile();
+    try (ZipFile zf = new ZipFile(fatJarFile)) {
+      Enumeration<? extends ZipEntry> zipEntries = zf.entries();
+      while (zipEntries.hasMoreElements()) {
+        ZipEntry entry = zipEntries.nextElement();
+        if (entry.getName().matches("META-INF/maven/[^/]+/[^/]+/pom\\.xml")) {
+          Path pomFile = Files.createTempFile("pom", ".xml");
+          pomFile.toFile().deleteOnExit();
+          try (InputStream is = zf.getInputStream(entry)) {
+            Files.copy(is, pomFile, StandardCopyOption.REPLACE_EXISTING);
+          }
+          return pomFile.toFile();
+        }
+      }
+      LOGGER.error("No pom.xml found within {}", fatJarFile);
+    } catch (IOException e) {
+      LOGGER.error("Error while reading pom.xml from {}", fatJarFile, e);
+    }
+    return null;
+  }
+
+  /**
+   * Resolve the effective model of a pom.xml against the maven repositories
+   *
+   * @param pomFile         the pom.xml
+   * @param mavenRepository the local maven repository
+   * @param mavenSettings   the maven settings.xml
+   * @param offline         <code>true</code> to resolve from the local maven repository only
+   * @return the effective model
+   * @throws ModelBuildingException if the model could not be resolved
+   * @throws IOException            on any I/O error
+   */
+  public static Model resolve(File pomFile, Path mavenRepository, Path mavenSettings, boolean offline)
+      throws ModelBuildingException, IOException {
+    DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+    locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
+    locator.addService(TransporterFactory.class, FileTransporterFactory.class);
+    locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+    locator.addService(TransporterFactory.class, WagonTransporterFactory.class);
+
+    RepositorySystem system = locator.getService(RepositorySystem.class);
+    DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+    LocalRepository localRepo = new LocalRepository(mavenRepository.toFile());
+    session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, localRepo));
+    session.setOffline(offline);
+
+    RequestTrace requestTrace = new RequestTrace(null);
+    RemoteRepositoryManager remoteRepositoryManager = locator.getService(RemoteRepositoryManager.class);
+    List<RemoteRepository> repos = new ArrayList<>();
+
+    // load profile from settings.xml
+    File mavenSettingsFile = mavenSettings.toFile();
+    if (offline) {
+      LOGGER.info("Resolving pom.xml offline from local maven repository {}", mavenRepository);
+    } else if (mavenSettingsFile.exists()) {
+      Settings settings = new DefaultSettingsReader().read(mavenSettingsFile, Collections.emptyMap());
+      String activeProfile = null;
+      if (settings.getActiveProfiles().isEmpty()) {
+        for (Profile profile : settings.getProfiles()) {
+          if (profile.getActivation() != null && profile.getActivation().isActiveByDefault()) {
+            activeProfile = profile.getId();
+          }
         }
       } else {
-        LOGGER.warn("Maven settings.xml file not found");
+        activeProfile = settings.getActiveProfiles().get(0);
       }
 
-      // add the default remote repository
+      if (activeProfile != null) {
+        List<Repository> profileRepositories = settings.getProfilesAsMap().get(activeProfile).getRepositories();
+        repos = profileRepositories.stream()
+            .map(profileRepository -> {
+              Builder builder = new RemoteRepository.Builder(profileRepository.getId(), "default",
+                  profileRepository.getUrl());
+              Optional<Server> profileServer = settings.getServers().stream()
+                  .filter(s -> s.getId().equalsIgnoreCase(profileRepository.getId())).findFirst();
+              if (profileServer.isPresent()) {
+                Authentication auth = new AuthenticationBuilder().addUsername(profileServer.get().getUsername())
+                    .addPassword(profileServer.get().getPassword()).build();
+                builder.setAuthentication(auth);
+              }
+              return builder.build();
+            })
+            .collect(Collectors.toList());
+      }
+    } else {
+      LOGGER.warn("Maven settings.xml file not found");
+    }
+
+    // add the default remote repository
+    if (!offline) {
       repos.add(new RemoteRepository.Builder("central", "default", "https://repo.maven.apache.org/maven2/").build());
+    }
 
-      DefaultRepositorySystem repositorySystem = new DefaultRepositorySystem();
-      repositorySystem.initService(locator);
-      ModelResolver modelResolver =
-          new ProjectModelResolver(session, requestTrace,
-              repositorySystem, remoteRepositoryManager, repos,
-              ProjectBuildingRequest.RepositoryMerging.POM_DOMINANT,
-              null);
+    DefaultRepositorySystem repositorySystem = new DefaultRepositorySystem();
+    repositorySystem.initService(locator);
+    ModelResolver modelResolver =
+        new ProjectModelResolver(session, requestTrace,
+            repositorySystem, remoteRepositoryManager, repos,
+            ProjectBuildingRequest.RepositoryMerging.POM_DOMINANT,
+            null);
 
-      DefaultModelBuildingRequest modelBuildingRequest = new DefaultModelBuildingRequest();
-      modelBuildingRequest.setPomFile(pomFile);
-      modelBuildingRequest.setModelResolver(modelResolver);
-      modelBuildingRequest.setSystemProperties(System.getProperties());
+    DefaultModelBuildingRequest modelBuildingRequest = new DefaultModelBuildingRequest();
+    modelBuildingRequest.setPomFile(pomFile);
+    modelBuildingRequest.setModelResolver(modelResolver);
+    modelBuildingRequest.setSystemProperties(System.getProperties());
 
-      DefaultModelBuilder modelBuilder = new DefaultModelBuilderFactory().newInstance();
+    DefaultModelBuilder modelBuilder = new DefaultModelBuilderFactory().newInstance();
 
-      cachedModel = modelBuilder.build(modelBuildingRequest).getEffectiveModel();
-    } catch (ModelBuildingException | IOException e) {
-      LOGGER.error("Error while resolving pom.xml", e);
+    return modelBuilder.build(modelBuildingRequest).getEffectiveModel();
+  }
+
+  /**
+   * Write an effective model including the hash of the pom.xml it was resolved from
+   *
+   * @param model      the effective model
+   * @param pomHash    the hash of the pom.xml
+   * @param targetFile the file to write to
+   * @throws IOException on any I/O error
+   */
+  public static void writeModel(Model model, String pomHash, File targetFile) throws IOException {
+    Files.createDirectories(targetFile.toPath().toAbsolutePath().getParent());
+    Model modelToWrite = model.clone();
+    modelToWrite.getProperties().setProperty(POM_HASH_PROPERTY, pomHash);
+    File tmpFile = new File(targetFile.getAbsolutePath() + "." + UUID.randomUUID());
+    try (OutputStream os = new FileOutputStream(tmpFile)) {
+      new MavenXpp3Writer().write(os, modelToWrite);
+    }
+    Files.move(tmpFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Compute the hash of a pom.xml
+   *
+   * @param pomFile the pom.xml
+   * @return the hex encoded SHA-256 hash
+   * @throws IOException on any I/O error
+   */
+  public static String sha256(File pomFile) throws IOException {
+    try (InputStream is = new FileInputStream(pomFile)) {
+      return DigestUtils.sha256Hex(is);
     }
-    return cachedModel;
   }
 
   private AuthenticationSelector createAuthenticationSelector(SettingsDecryptionResult decryptedSettings) {
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.apache.maven.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build step that resolves the effective pom.xml at package time and stores it as snapshot within the build output,
+ * so the application can start without resolving the pom.xml against the maven repositories. Arguments: the pom.xml
+ * (default <code>pom.xml</code>) and the output directory (default <code>target/classes</code>). The maven repository,
+ * settings and offline mode can be set via the system properties <code>maven.repository</code>,
+ * <code>maven.settings</code> and <code>maven.offline</code>.
+ *
+ * @author TRIBE01
+ */
+public class EffectivePomSnapshotWriter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EffectivePomSnapshotWriter.class);
+
+  public static void main(String[] args) throws Exception {
+    File pomFile = new File(args.length > 0 ? args[0] : "pom.xml");
+    File outputDir = new File(args.length > 1 ? args[1] : "target/classes");
+    String userHome = System.getProperty("user.home");
+    Path mavenRepository = Paths.get(System.getProperty("maven.repository", userHome + "/.m2/repository"));
+    Path mavenSettings = Paths.get(System.getProperty("maven.settings", userHome + "/.m2/settings.xml"));
+    boolean offline = Boolean.getBoolean("maven.offline");
+
+    Model model = EffectivePomReader.resolve(pomFile, mavenRepository, mavenSettings, offline);
+    File snapshotFile = new File(outputDir, EffectivePomReader.SNAPSHOT_RESOURCE);
+    EffectivePomReader.writeModel(model, EffectivePomReader.sha256(pomFile), snapshotFile);
+    LOGGER.info("Effective pom snapshot written to {}", snapshotFile.getAbsolutePath());
+  }
+}
@@ -17,22 +17,44 @@ package com.arvato.workflow.kie4developer.common.impl;
 
 import com.arvato.workflow.kie4developer.common.interfaces.IDeployableDependency;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
 
 /**
  * Helper to fetch Files from Filesystem
@@ -43,12 +65,27 @@ import org.springframework.stereotype.Component;
 public class FileSystemUtils {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemUtils.class);
+  private static final String UNZIP_MARKER_SUFFIX = ".complete";
+  private static final String UNZIP_LOCK_SUFFIX = ".lock";
+  // extracted archives used within this time may be read by another JVM and are not evicted
+  private static final long UNZIP_EVICTION_GRACE = TimeUnit.HOURS.toMillis(1);
   private ApplicationContext applicationContext;
   private Path mavenRepository;
+  private boolean unzipCacheEnabled;
+  private Path unzipCacheDir;
+  private long unzipCacheMaxBytes;
+  private volatile ApplicationLayout applicationLayout;
+  private final Set<String> pinnedUnzipKeys = ConcurrentHashMap.newKeySet(); // archives that must not be evicted
 
-  public FileSystemUtils(ApplicationContext applicationContext, @Value("${maven.repository}") String mavenRepository){
+  public FileSystemUtils(ApplicationContext applicationContext, @Value("${maven.repository}") String mavenRepository,
+      @Value("${spring.application.unzip.cache.enabled}") boolean unzipCacheEnabled,
+      @Value("${spring.application.unzip.cache.dir}") String unzipCacheDir,
+      @Value("${spring.application.unzip.cache.maxsize}") long unzipCacheMaxSize){
     this.applicationContext = applicationContext;
     this.mavenRepository = Paths.get(mavenRepository);
+    this.unzipCacheEnabled = unzipCacheEnabled;
+    this.unzipCacheDir = Paths.get(unzipCacheDir);
+    this.unzipCacheMaxBytes = unzipCacheMaxSize * 1024 * 1024;
   }
 
   /**
@@ -81,13 +118,7 @@ public class FileSystemUtils {
    * @return the found File or <code>null</code>
    */
   public File getFile(Path path){
-    Path basePath;
-    if (runAsFatJar()) {
-      basePath = unzip(getFatJarFile()).toPath();
-    }else{
-      basePath = Paths.get("");
-    }
-    return basePath.resolve(path).toFile();
+    return getApplicationLayout().getRoot().toPath().resolve(path).toFile();
   }
 
   /**
@@ -100,6 +131,81 @@ public class FileSystemUtils {
     return unzip(getMavenDependencyJarFile(dependency));
   }
 
+  /**
+   * Get the archive path of the jar file for a dependency. When running as fat-jar the path points to the nested jar
+   * e.g. <code>/app.jar!/BOOT-INF/lib/dependency-1.0.jar</code>, so it can be read without extracting the fat-jar.
+   *
+   * @param dependency the dependency to fetch
+   * @return the archive path
+   * @see #readArchiveEntries(String, Predicate, BiConsumer)
+   */
+  public String getMavenDependencyArchivePath(IDeployableDependency dependency){
+    ApplicationLayout layout = getApplicationLayout();
+    if (layout.isFatJar()) {
+      String jarFilename = dependency.getMavenArtifactId() + "-" + dependency.getMavenVersionId() + ".jar";
+      return layout.getFatJarFile().getAbsolutePath() + "!/" + layout.getLibJars().getOrDefault(jarFilename, "BOOT-INF/lib/" + jarFilename);
+    }else{
+      return getMavenDependencyJarFile(dependency).getAbsolutePath();
+    }
+  }
+
+  /**
+   * Read the file entries of an archive without extracting it to disk. The archive path may point into the archive
+   * using <code>!/</code> as separator, either to a nested jar (e.g. <code>app.jar!/BOOT-INF/lib/dependency.jar</code>)
+   * or to a folder (e.g. <code>app.jar!/BOOT-INF/classes!/</code>). Entry names are passed relative to that location.
+   *
+   * @param archivePath the path of the archive
+   * @param filter      filter for the relative entry names to read
+   * @param consumer    consumer for the relative entry name and the entry content
+   * @throws IOException on any I/O error
+   */
+  public void readArchiveEntries(String archivePath, Predicate<String> filter, BiConsumer<String, byte[]> consumer)
+      throws IOException {
+    String[] parts = archivePath.split("!/");
+    try (ZipFile zf = new ZipFile(parts[0])) {
+      if (parts.length > 1 && parts[1].endsWith(".jar")) {
+        ZipEntry nestedJar = zf.getEntry(parts[1]);
+        if (nestedJar == null) {
+          throw new FileNotFoundException(archivePath);
+        }
+        String prefix = parts.length > 2 ? toEntryPrefix(parts[2]) : "";
+        try (ZipInputStream zis = new ZipInputStream(zf.getInputStream(nestedJar))) {
+          ZipEntry entry;
+          while ((entry = zis.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (!entry.isDirectory() && name.startsWith(prefix) && filter.test(name.substring(prefix.length()))) {
+              consumer.accept(name.substring(prefix.length()), StreamUtils.copyToByteArray(zis));
+            }
+          }
+        }
+      } else {
+        String prefix = parts.length > 1 ? toEntryPrefix(parts[1]) : "";
+        Enumeration<? extends ZipEntry> zipEntries = zf.entries();
+        while (zipEntries.hasMoreElements()) {
+          ZipEntry entry = zipEntries.nextElement();
+          String name = entry.getName();
+          if (!entry.isDirectory() && name.startsWith(prefix) && filter.test(name.substring(prefix.length()))) {
+            try (InputStream is = zf.getInputStream(entry)) {
+              consumer.accept(name.substring(prefix.length()), StreamUtils.copyToByteArray(is));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Convert a folder within an archive path to a zip entry name prefix e.g. <code>BOOT-INF/classes!</code> to
+   * <code>BOOT-INF/classes/</code>
+   *
+   * @param folder the folder
+   * @return the entry name prefix
+   */
+  private String toEntryPrefix(String folder) {
+    String prefix = folder.endsWith("!") ? folder.substring(0, folder.length() - 1) : folder;
+    return prefix.isEmpty() || prefix.endsWith("/") ? prefix : prefix + "/";
+  }
+
   /**
    * Get the jar file for a dependency
    *
@@ -122,9 +228,57 @@ public class FileSystemUtils {
    * @return <code>true</code> if running as fat-jar, <code>false</code> if running in IDE
    */
   public boolean runAsFatJar() {
+    return getApplicationLayout().isFatJar();
+  }
+
+  /**
+   * Get the layout of the running application. The layout is resolved on first access and reused afterwards.
+   *
+   * @return the application layout
+   */
+  public ApplicationLayout getApplicationLayout() {
+    ApplicationLayout layout = applicationLayout;
+    if (layout == null) {
+      synchronized (this) {
+        layout = applicationLayout;
+        if (layout == null) {
+          layout = resolveApplicationLayout();
+          applicationLayout = layout;
+        }
+      }
+    }
+    return layout;
+  }
+
+  /**
+   * Resolve the layout of the running application
+   *
+   * @return the application layout
+   */
+  private ApplicationLayout resolveApplicationLayout() {
     Class mainClassOnProject = applicationContext.getBeansWithAnnotation(SpringBootApplication.class).values().toArray()[0].getClass();
     String compiledClassesDir = mainClassOnProject.getProtectionDomain().getCodeSource().getLocation().getFile();
-    return compiledClassesDir.contains(".jar");
+    if (!compiledClassesDir.contains(".jar")) {
+      return new ApplicationLayout(false, null, new HashMap<>(), () -> Paths.get("").toFile());
+    }
+    File fatJarFile = getFatJarFile();
+    Map<String, String> libJars = new HashMap<>();
+    if (fatJarFile != null) {
+      try (ZipFile zf = new ZipFile(fatJarFile)) {
+        Enumeration<? extends ZipEntry> zipEntries = zf.entries();
+        while (zipEntries.hasMoreElements()) {
+          String name = zipEntries.nextElement().getName();
+          if (name.startsWith("BOOT-INF/lib/") && name.endsWith(".jar")) {
+            libJars.put(name.substring(name.lastIndexOf('/') + 1), name);
+          }
+        }
+      } catch (IOException e) {
+        LOGGER.error("Error while indexing fat-jar: {}", fatJarFile, e);
+      }
+    }
+    LOGGER.debug("Running as fat-jar {} with {} lib jars", fatJarFile, libJars.size());
+    // the layout keeps pointing at the extracted fat-jar, so it must not be evicted from the extraction cache
+    return new ApplicationLayout(true, fatJarFile, libJars, () -> unzip(fatJarFile, true));
   }
 
   /**
@@ -133,9 +287,6 @@ public class FileSystemUtils {
    * @return the fat-jar file or <code>null</code>
    */
   private File getFatJarFile() {
-    if (!runAsFatJar()){
-      return null;
-    }
     String compiledClassesDir = FileSystemUtils.class.getProtectionDomain().getCodeSource().getLocation().getFile();
     compiledClassesDir = compiledClassesDir.startsWith("file:") ? compiledClassesDir.substring(5) : compiledClassesDir;
     compiledClassesDir = compiledClassesDir.contains("!") ? compiledClassesDir.substring(0, compiledClassesDir.indexOf("!")) : compiledClassesDir;
@@ -149,18 +300,82 @@ public class FileSystemUtils {
   }
 
   /**
-   * Unzip a zip/jar to a tmp directory
+   * Unzip a zip/jar to a tmp directory. If the extraction cache is enabled an already extracted tree of the same
+   * archive (same path, size and modification time) is reused, even across JVM restarts.
    *
    * @param zipFile the jar or zip file to extract
    * @return the temp directory which contains all extracted folders and files of the archive
    */
   public File unzip(File zipFile) {
-    Path outputPath = null;
+    return unzip(zipFile, false);
+  }
+
+  /**
+   * Unzip a zip/jar to a tmp directory
+   *
+   * @param zipFile the jar or zip file to extract
+   * @param pin     <code>true</code> to protect the extracted tree from eviction until the JVM stops
+   * @return the temp directory which contains all extracted folders and files of the archive or <code>null</code> on
+   * any error
+   */
+  private File unzip(File zipFile, boolean pin) {
+    if (!unzipCacheEnabled) {
+      try {
+        Path outputPath = createTempDirectory();
+        return unzip(zipFile, outputPath) < 0 ? null : outputPath.toFile();
+      } catch (IOException e) {
+        LOGGER.error("Error while creating tmp dir for unzipping", e);
+        return null;
+      }
+    }
+
+    String key = DigestUtils.sha256Hex(zipFile.getAbsolutePath() + "|" + zipFile.length() + "|" + zipFile.lastModified());
+    Path outputPath = unzipCacheDir.resolve(key);
+    Path marker = unzipCacheDir.resolve(key + UNZIP_MARKER_SUFFIX);
+    if (pin) {
+      pinnedUnzipKeys.add(key);
+    }
     try {
-      outputPath = createTempDirectory();
+      if (!Files.exists(marker)) {
+        Files.createDirectories(unzipCacheDir);
+        // only the archive is locked, other archives are extracted concurrently (also by other JVMs)
+        Path lockFile = unzipCacheDir.resolve(key + UNZIP_LOCK_SUFFIX);
+        synchronized (lockFile.toAbsolutePath().toString().intern()) {
+          try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+              FileLock lock = channel.lock()) {
+            if (!Files.exists(marker)) {
+              Path tmpOutputPath = unzipCacheDir.resolve(key + "." + UUID.randomUUID());
+              long extractedBytes = unzip(zipFile, tmpOutputPath);
+              if (extractedBytes < 0) {
+                delete(tmpOutputPath);
+                return null;
+              }
+              delete(outputPath); // remains of an interrupted extraction, there is no marker
+              Files.move(tmpOutputPath, outputPath, StandardCopyOption.ATOMIC_MOVE);
+              Files.write(marker, String.valueOf(extractedBytes).getBytes(StandardCharsets.UTF_8));
+            }
+          }
+        }
+        evictUnzipCache(key);
+      }
+      // mark as recently used
+      Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
     } catch (IOException e) {
-      LOGGER.error("Error while creating tmp dir for unzipping", e);
+      LOGGER.error("Error while caching extracted archive: {}", zipFile, e);
+      return null;
     }
+    return outputPath.toFile();
+  }
+
+  /**
+   * Unzip a zip/jar into the given directory
+   *
+   * @param zipFile    the jar or zip file to extract
+   * @param outputPath the directory to extract into
+   * @return the number of extracted bytes or <code>-1</code> on any error
+   */
+  private long unzip(File zipFile, Path outputPath) {
+    long extractedBytes = 0;
     try (ZipFile zf = new ZipFile(zipFile)) {
       Enumeration<? extends ZipEntry> zipEntries = zf.entries();
       while (zipEntries.hasMoreElements()) {
@@ -175,14 +390,62 @@ public class FileSystemUtils {
             LOGGER.warn("File {} already exist.", fileToCreate);
             fileToCreate.toFile().delete();
           }
-          Files.copy(zf.getInputStream(entry), fileToCreate);
+          extractedBytes += Files.copy(zf.getInputStream(entry), fileToCreate);
         }
       }
     } catch (IOException e) {
       LOGGER.error("Error while unzipping: {}", zipFile, e);
-      return null;
+      return -1;
+    }
+    return extractedBytes;
+  }
+
+  /**
+   * Remove the least recently used extracted archives until the extraction cache fits into its disk budget. Archives
+   * pinned by this JVM, used within the last hour or locked by another JVM are not evicted.
+   *
+   * @param keyToKeep the key of the archive that must not be evicted
+   * @throws IOException on any I/O error
+   */
+  private synchronized void evictUnzipCache(String keyToKeep) throws IOException {
+    List<Path> markers;
+    try (Stream<Path> files = Files.list(unzipCacheDir)) {
+      markers = files.filter(file -> file.getFileName().toString().endsWith(UNZIP_MARKER_SUFFIX))
+          .sorted(Comparator.comparingLong(file -> file.toFile().lastModified()))
+          .collect(Collectors.toList());
+    }
+    Map<Path, Long> sizes = new HashMap<>();
+    long totalBytes = 0;
+    for (Path marker : markers) {
+      long size = Long.parseLong(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8).trim());
+      sizes.put(marker, size);
+      totalBytes += size;
+    }
+    long lastUseToEvict = System.currentTimeMillis() - UNZIP_EVICTION_GRACE;
+    for (Path marker : markers) {
+      if (totalBytes <= unzipCacheMaxBytes || marker.toFile().lastModified() > lastUseToEvict) {
+        break;
+      }
+      String markerName = marker.getFileName().toString();
+      String key = markerName.substring(0, markerName.length() - UNZIP_MARKER_SUFFIX.length());
+      if (key.equals(keyToKeep) || pinnedUnzipKeys.contains(key)) {
+        continue;
+      }
+      Path lockFile = unzipCacheDir.resolve(key + UNZIP_LOCK_SUFFIX);
+      synchronized (lockFile.toAbsolutePath().toString().intern()) {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock()) {
+          if (lock == null) {
+            continue; // extracted by another JVM right now
+          }
+          LOGGER.debug("Evicting extracted archive {} from cache", key);
+          // the marker goes first, so the tree is extracted again instead of read while it is deleted
+          Files.delete(marker);
+          delete(unzipCacheDir.resolve(key));
+          totalBytes -= sizes.get(marker);
+        }
+      }
     }
-    return outputPath.toFile();
   }
 
   /**
@@ -15,6 +15,8 @@
  */
 package com.arvato.workflow.kie4developer.common.impl;
 
+import com.arvato.workflow.kie4developer.common.impl.index.ClassIndex;
+import com.arvato.workflow.kie4developer.marshalling.ExternalizedVariable;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Set;
@@ -30,7 +32,6 @@ import org.kie.server.client.UIServicesClient;
 import org.kie.server.client.UserTaskServicesClient;
 import org.kie.server.client.admin.ProcessAdminServicesClient;
 import org.kie.server.client.admin.UserTaskAdminServicesClient;
-import org.reflections.Reflections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -55,8 +56,9 @@ public class KieClient {
   private String kieServerPwd;
   private Long timeout;
   private String serializationGroupId;
+  private ClassIndex classIndex;
 
-  public KieClient(Environment environment, @Value("${kieserver.location}") String kieServerUrl,
+  public KieClient(Environment environment, ClassIndex classIndex, @Value("${kieserver.location}") String kieServerUrl,
       @Value("${kieserver.user}") String kieServerUser, @Value("${kieserver.pwd}") String kieServerPwd,
       @Value("${org.kie.server.timeout}") Long timeout,
       @Value("${spring.application.groupid.serialization}") String serializationGroupId) {
@@ -66,6 +68,7 @@ public class KieClient {
     this.kieServerPwd = kieServerPwd;
     this.timeout = timeout;
     this.serializationGroupId = serializationGroupId;
+    this.classIndex = classIndex;
   }
 
   public KieServicesClient getKieServicesClient() {
@@ -79,12 +82,12 @@ public class KieClient {
       configuration.setTimeout(timeout); // default is 5s
       configuration.setMarshallingFormat(MarshallingFormat.JSON);
       Set<Class<?>> customJAXBClasses = new HashSet<>();
-      Reflections ref = new Reflections(serializationGroupId);
-      for (Class<?> cl : ref.getSubTypesOf(Serializable.class)) {
+      for (Class<?> cl : classIndex.getSubTypesOf(serializationGroupId, Serializable.class)) {
         if (cl.getName().startsWith(serializationGroupId)) {
           customJAXBClasses.add(cl);
         }
       }
+      customJAXBClasses.add(ExternalizedVariable.class);
       configuration.setExtraClasses(customJAXBClasses);
       kieServicesClient = KieServicesFactory.newKieServicesClient(configuration);
       LOGGER.info("Connection established");
@@ -15,42 +15,62 @@
  */
 package com.arvato.workflow.kie4developer.common.impl;
 
+import com.arvato.workflow.kie4developer.common.impl.index.ClassIndex;
+import com.arvato.workflow.kie4developer.common.impl.instance.ProcessInstanceAborter;
+import com.arvato.workflow.kie4developer.common.impl.instance.ProcessInstancePager;
 import com.arvato.workflow.kie4developer.common.impl.kjar.JarUploader;
 import com.arvato.workflow.kie4developer.common.impl.kjar.KJarBuilder;
+import com.arvato.workflow.kie4developer.common.impl.kjar.LocalRepositoryInstaller;
+import com.arvato.workflow.kie4developer.common.impl.migration.MigrationEngine;
 import com.arvato.workflow.kie4developer.common.interfaces.IDeployableBPMNProcess;
 import com.arvato.workflow.kie4developer.common.interfaces.IDeployableDependency;
 import com.arvato.workflow.kie4developer.common.interfaces.IDeployableWorkItemHandler;
 import com.arvato.workflow.kie4developer.common.interfaces.IDeploymentHelper;
 import com.arvato.workflow.kie4developer.common.interfaces.IRelease;
+import com.arvato.workflow.kie4developer.common.model.AuditMode;
+import com.arvato.workflow.kie4developer.common.model.MigrationSummary;
 import com.arvato.workflow.kie4developer.workitemhandler.JavaWorkItemHandler;
+import com.arvato.workflow.kie4developer.workitemhandler.JavaWorkItemHandler.InstanceScope;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import java.util.stream.StreamSupport;
-import org.apache.commons.collections4.ListUtils;
+import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.apache.maven.model.Dependency;
-import org.appformer.maven.integration.Aether;
-import org.appformer.maven.integration.MavenRepository;
-import org.appformer.maven.integration.embedder.MavenSettings;
-import org.drools.compiler.kie.builder.impl.KieRepositoryImpl;
-import org.eclipse.aether.repository.RemoteRepository;
-import org.kie.scanner.KieRepositoryScannerImpl;
-import org.kie.server.api.exception.KieServicesHttpException;
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieRepository;
+import org.kie.server.api.KieServerConstants;
 import org.kie.server.api.model.KieContainerResource;
 import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.api.model.KieServerConfigItem;
+import org.kie.server.api.model.KieServerInfo;
 import org.kie.server.api.model.KieServiceResponse.ResponseType;
 import org.kie.server.api.model.ReleaseId;
 import org.kie.server.api.model.ServiceResponse;
 import org.kie.server.api.model.admin.MigrationReportInstance;
+import org.kie.server.api.model.definition.ProcessDefinition;
 import org.kie.server.api.model.instance.ProcessInstance;
-import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
+import org.kie.server.services.api.KieServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.AbstractEnvironment;
@@ -64,11 +84,16 @@ import org.springframework.stereotype.Component;
 public class KieClientDeploymentHelper implements IDeploymentHelper {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(KieClientDeploymentHelper.class);
+  // container config item with the audit mode of the release deployed in the container
+  private static final String AUDIT_MODE_CONFIG_ITEM = "kie4developer.auditmode";
   private IRelease release;
   private EffectivePomReader effectivePomReader;
   private KieClient kieClient;
+  private MigrationEngine migrationEngine;
+  private ProcessInstanceAborter processInstanceAborter;
   private KJarBuilder kJarBuilder;
   private JarUploader jarUploader;
+  private LocalRepositoryInstaller localRepositoryInstaller;
   private FileSystemUtils fileSystemUtils;
   private List<IDeployableDependency> dependenciesToDeploy;
   private List<Class<? extends IDeployableBPMNProcess>> processesToDeploy;
@@ -85,6 +110,10 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
   private String workbenchMavenContext;
   private String retries;
   private int chunkSize;
+  private boolean inMemoryDeployment;
+  private int warmUpStarts;
+  private ObjectProvider<KieServer> embeddedKieServer;
+  private Boolean embeddedServer; // detected on first use
 
   static {
     // change the optimizer to not generate negative IDs for entities on unittests and to be able to reuse db connections
@@ -96,8 +125,12 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
       EffectivePomReader effectivePomReader,
       KJarBuilder kJarBuilder,
       KieClient kieClient,
+      MigrationEngine migrationEngine,
+      ProcessInstanceAborter processInstanceAborter,
       JarUploader jarUploader,
+      LocalRepositoryInstaller localRepositoryInstaller,
       FileSystemUtils fileSystemUtils,
+      ClassIndex classIndex,
       @Value("${kieworkbench.protocol}") String workbenchProtocol,
       @Value("${kieworkbench.host}") String workbenchHost,
       @Value("${kieworkbench.port}") int workbenchPort,
@@ -106,13 +139,23 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
       @Value("${kieserver.host}") String kieServerHost,
       @Value("${kieserver.location}") String kieServerUrl,
       @Value("${spring.application.retries}") String retries,
+      @Value("${spring.application.retries.delay}") String retryDelay,
+      @Value("${spring.application.retries.multiplier}") String retryMultiplier,
+      @Value("${spring.application.retries.async}") String asyncRetries,
+      @Value("${spring.application.workitemhandler.scope}") InstanceScope workItemHandlerScope,
       @Value("${spring.application.chunksize}") int chunkSize,
+      @Value("${spring.application.deploy.inmemory}") boolean inMemoryDeployment,
+      @Value("${spring.application.bluegreen.warmup.starts}") int warmUpStarts,
+      ObjectProvider<KieServer> embeddedKieServer,
       @Autowired Environment springEnv) {
     this.release = release;
     this.effectivePomReader = effectivePomReader;
     this.kJarBuilder = kJarBuilder;
     this.kieClient = kieClient;
+    this.migrationEngine = migrationEngine;
+    this.processInstanceAborter = processInstanceAborter;
     this.jarUploader = jarUploader;
+    this.localRepositoryInstaller = localRepositoryInstaller;
     this.fileSystemUtils = fileSystemUtils;
     this.kieServerHost = kieServerHost;
     this.kieServerUrl = kieServerUrl;
@@ -122,22 +165,27 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
     this.workbenchContext = workbenchContext;
     this.workbenchMavenContext = workbenchMavenContext;
     this.processesToDeploy = new ArrayList<>(
-        new Reflections(this.release.getGroupId() + ".processes").getSubTypesOf(IDeployableBPMNProcess.class));
+        classIndex.getSubTypesOf(this.release.getGroupId() + ".processes", IDeployableBPMNProcess.class));
     this.processesToMock = new ArrayList<>();
     this.serviceClassesToDeploy = new ArrayList<>(
-        new Reflections(this.release.getGroupId() + ".services", new SubTypesScanner(false))
-            .getSubTypesOf(Object.class));
+        classIndex.getSubTypesOf(this.release.getGroupId() + ".services", Object.class));
     this.workItemHandlersToDeploy = new ArrayList<>(
-        new Reflections(this.release.getGroupId() + ".workitemhandler")
-            .getSubTypesOf(IDeployableWorkItemHandler.class));
+        classIndex.getSubTypesOf(this.release.getGroupId() + ".workitemhandler", IDeployableWorkItemHandler.class));
     this.workItemHandlersToDeploy.add(JavaWorkItemHandler.class);
     this.dependenciesToDeploy = getDependencies();
     this.globals = getGlobals(springEnv);
     this.retries = retries;
     this.chunkSize = chunkSize;
+    this.inMemoryDeployment = inMemoryDeployment;
+    this.warmUpStarts = warmUpStarts;
+    this.embeddedKieServer = embeddedKieServer;
 
     System.setProperty("kieserver.location", this.kieServerUrl); // required for JavaWorkItemHandler
     System.setProperty("spring.application.retries", this.retries); // required for JavaWorkItemHandler
+    System.setProperty("spring.application.retries.delay", retryDelay); // required for JavaWorkItemHandler
+    System.setProperty("spring.application.retries.multiplier", retryMultiplier); // required for JavaWorkItemHandler
+    System.setProperty("spring.application.retries.async", asyncRetries); // required for JavaWorkItemHandler
+    System.setProperty("spring.application.workitemhandler.scope", workItemHandlerScope.name()); // required for JavaWorkItemHandler
   }
 
   /**
@@ -229,48 +277,29 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
 
   @Override
   public List<MigrationReportInstance> migrate(String oldContainerId) {
-    List<MigrationReportInstance> migrationReport = new ArrayList<>();
-    LOGGER.info("Migrating old process instances on KIE-Server...");
-    // check if we have running process instances which can be migrated
-    List<ProcessInstance> processInstances = kieClient.getProcessClient()
-        .findProcessInstances(oldContainerId, 0, Integer.MAX_VALUE);
-    List<Long> processInstanceIds;
+    List<MigrationReportInstance> migrationReport = Collections.synchronizedList(new ArrayList<>());
+    try {
+      migrateAsync(oldContainerId, migrationReport::add).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.error("Interrupted while migrating process instances", e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+          : new RuntimeException(e.getCause());
+    }
+    return new ArrayList<>(migrationReport);
+  }
 
+  @Override
+  public CompletableFuture<MigrationSummary> migrateAsync(String oldContainerId,
+      Consumer<MigrationReportInstance> reportConsumer) {
+    LOGGER.info("Migrating old process instances on KIE-Server...");
+    // the processes of the release by name
+    Map<String, String> processIdsByName = new HashMap<>();
     for (Class<? extends IDeployableBPMNProcess> processesToDeploy : processesToDeploy) {
       try {
         IDeployableBPMNProcess instance = processesToDeploy.newInstance();
-
-        // collect all process instance ids for the process
-        processInstanceIds = new ArrayList<>();
-        for (ProcessInstance processInstance : processInstances) {
-          if (processInstance.getProcessName().equals(instance.getName())) {
-            processInstanceIds.add(processInstance.getId());
-          }
-        }
-
-        // migrate
-        if (processInstanceIds.isEmpty()){
-          LOGGER.info("MigrationReport - no process instances exists for process {}.", instance.getName());
-        } else {
-          List<List<Long>> partitions = ListUtils.partition(processInstanceIds, chunkSize);
-          for (List<Long> partionOfProcessInstanceIds : partitions){
-            List<MigrationReportInstance> migrationReportforProcessToDeploy = kieClient.getProcessAdminClient()
-                .migrateProcessInstances(oldContainerId, partionOfProcessInstanceIds,
-                    release.getContainerId(), instance.getProcessId());
-
-            for (MigrationReportInstance report : migrationReportforProcessToDeploy) {
-              if (!report.isSuccessful()) {
-                LOGGER.error("MigrationReport - failed to migrate process instance {}.\n{}",
-                    report.getProcessInstanceId(), report.getLogs());
-              } else {
-                LOGGER
-                    .info("MigrationReport - process instance {} successful migrated.", report.getProcessInstanceId());
-              }
-            }
-
-            migrationReport.addAll(migrationReportforProcessToDeploy);
-          }
-        }
+        processIdsByName.put(instance.getName(), instance.getProcessId());
       } catch (InstantiationException e) {
         LOGGER.error("Error while creating new instance of class", e);
       } catch (IllegalAccessException e) {
@@ -278,10 +307,79 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
       }
     }
 
-    // undeploy old container
-    undeploy(oldContainerId, false);
-    LOGGER.info("Migration complete");
-    return migrationReport;
+    // migrate
+    AuditMode oldAuditMode = getAuditMode(
+        kieClient.getKieServicesClient().getContainerInfo(oldContainerId).getResult());
+    if (oldAuditMode == AuditMode.NONE) {
+      CompletableFuture<MigrationSummary> failure = new CompletableFuture<>();
+      failure.completeExceptionally(new IllegalStateException(String.format(
+          "Process instances of KIE Container %s can't be migrated in audit mode %s", oldContainerId, oldAuditMode)));
+      return failure;
+    }
+    Iterator<MigrationEngine.Chunk> chunks = getMigrationChunks(oldContainerId, processIdsByName);
+    return migrationEngine.migrate(oldContainerId, release.getContainerId(), chunks, report -> {
+      if (!report.isSuccessful()) {
+        LOGGER.error("MigrationReport - failed to migrate process instance {}.\n{}",
+            report.getProcessInstanceId(), report.getLogs());
+      } else {
+        LOGGER.info("MigrationReport - process instance {} successful migrated.", report.getProcessInstanceId());
+      }
+      reportConsumer.accept(report);
+    }).thenApply(summary -> {
+      // undeploy old container
+      undeploy(oldContainerId, false);
+      LOGGER.info("Migration complete: {}", summary);
+      return summary;
+    });
+  }
+
+  /**
+   * Get the chunks of process instances to migrate. The process instances are read page by page while the migration
+   * proceeds.
+   *
+   * @param oldContainerId   the container id containing the old active process instances
+   * @param processIdsByName the process ids of the release by process name
+   * @return the chunks grouped by process
+   */
+  private Iterator<MigrationEngine.Chunk> getMigrationChunks(String oldContainerId,
+      Map<String, String> processIdsByName) {
+    // migrated process instances leave the old container, so the old container gets drained
+    ProcessInstancePager pager = ProcessInstancePager.drain(kieClient.getQueryClient(), oldContainerId, chunkSize);
+    return new Iterator<MigrationEngine.Chunk>() {
+      private final Deque<MigrationEngine.Chunk> pendingChunks = new ArrayDeque<>();
+
+      @Override
+      public boolean hasNext() {
+        while (pendingChunks.isEmpty()) {
+          List<ProcessInstance> page = pager.nextPage();
+          if (page.isEmpty()) {
+            return false;
+          }
+          Map<String, List<Long>> processInstanceIdsByProcessId = new LinkedHashMap<>();
+          for (ProcessInstance processInstance : page) {
+            String processId = processIdsByName.get(processInstance.getProcessName());
+            if (processId == null) {
+              LOGGER.warn("MigrationReport - no process {} exists for process instance {}.",
+                  processInstance.getProcessName(), processInstance.getId());
+            } else {
+              processInstanceIdsByProcessId.computeIfAbsent(processId, id -> new ArrayList<>())
+                  .add(processInstance.getId());
+            }
+          }
+          processInstanceIdsByProcessId.forEach((processId, processInstanceIds) -> pendingChunks
+              .add(new MigrationEngine.Chunk(processId, processInstanceIds)));
+        }
+        return true;
+      }
+
+      @Override
+      public MigrationEngine.Chunk next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return pendingChunks.poll();
+      }
+    };
   }
 
   @Override
@@ -303,21 +401,7 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
      *  extend the maven settings.xml on the kie-server to fetch artifacts from other repositories
      */
 
-    // first we have to build the kjar release file by our own
-    Map<String, File> jarAndPomFile;
-    try {
-      jarAndPomFile = kJarBuilder
-          .buildKjar(dependenciesToDeploy, processesToDeploy, processesToMock, workItemHandlersToDeploy, serviceClassesToDeploy, globals);
-    } catch (Exception e) {
-      LOGGER.error("Error while creating the kjar file", e);
-      return false;
-    }
-
-    // next we can upload this file into kie-server maven repo
-    try {
-      uploadJar(jarAndPomFile.get("jar"), jarAndPomFile.get("pom"));
-    } catch (Exception e) {
-      LOGGER.error("Error while uploading jar file {}. This could be also caused by missing dependencies", jarAndPomFile.get("jar").getAbsolutePath(), e);
+    if (!provideArtifact()) {
       return false;
     }
 
@@ -347,34 +431,10 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
     String artifactId = release.getArtifactId();
     String versionId = release.getVersion();
 
-    if (kieServerHost.contains("localhost") || kieServerHost.contains("127.0.0.1")) {
+    if (isLocalServer()) {
       // if running on local jbpm server provide the artifacts via local maven repository
-      File repositoryDir = fileSystemUtils.createTempDirectory().toFile();
-      String repositoryUrl = repositoryDir.toURI().toURL().toExternalForm();
-
-      // workaround to reset the maven repository for the jbpm server. This is required for running multiple unittest.
-      MavenRepository.defaultMavenRepository = null;
-      Aether.instance = null;
-      KieRepositoryImpl.setInternalKieScanner(new KieRepositoryScannerImpl());
-      MavenSettings.getSettings().setLocalRepository(repositoryDir.getAbsolutePath());
-
-      // install the jar into the temp local repository
-      MavenRepository.getMavenRepository().installArtifact(release.getReleaseIdForServerAPI(), jarFile, pomFile);
-      File jarInRepo = new File(
-          repositoryDir.getAbsolutePath() + "/" + groupIdAsUrl + "/" + artifactId + "/" + versionId + "/" + artifactId
-              + "-" + versionId + ".jar");
-      if (jarInRepo.exists()) {
-        LOGGER
-            .info("Jar file {} successful installed into local maven repository: {}", jarFile.getName(), repositoryDir);
-      } else {
-        throw new IOException(String
-            .format("Error while installing jar file into local maven repository %s.",
-                jarFile.getAbsolutePath()));
-      }
-      // add the temp local maven repository as new remote repository for the local running kie server; the server fetch from there
-      MavenSettings.getMavenRepositoryConfiguration().getRemoteRepositoriesForRequest().clear();
-      RemoteRepository remoteRepository = new RemoteRepository.Builder("local", "maven2", repositoryUrl).build();
-      MavenSettings.getMavenRepositoryConfiguration().getRemoteRepositoriesForRequest().add(remoteRepository);
+      File repositoryDir = localRepositoryInstaller.install(release.getReleaseIdForServerAPI(), jarFile, pomFile);
+      LOGGER.info("Jar file {} successful installed into local maven repository: {}", jarFile.getName(), repositoryDir);
     } else {
       // if deployment target is a external jbpm server provide the artifacts via kie workbench
       String mavenBaseUrl =
@@ -382,31 +442,140 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
               + workbenchMavenContext;
       String url = mavenBaseUrl + "/" + groupIdAsUrl + "/" + artifactId + "/" + versionId + "/"
           + artifactId
-          + "-" + versionId + ".jar";
+          + "-" + versionId;
 
-      ResponseEntity<String> response = jarUploader.uploadFile(jarFile, url);
-      if (response.getStatusCode().is2xxSuccessful()) {
-        LOGGER.info("Jar file {} successful uploaded into kie workbench: {}", jarFile.getName(), mavenBaseUrl);
-      } else {
+      // upload jar and pom concurrently, artifacts that are already present in the repository are skipped
+      CompletableFuture<Boolean> jarUpload = jarUploader.uploadArtifactAsync(jarFile, url + ".jar");
+      CompletableFuture<Boolean> pomUpload = jarUploader.uploadArtifactAsync(pomFile, url + ".pom");
+      try {
+        boolean jarUploaded = jarUpload.join();
+        boolean pomUploaded = pomUpload.join();
+        if (jarUploaded || pomUploaded) {
+          LOGGER.info("Jar file {} successful uploaded into kie workbench: {}", jarFile.getName(), mavenBaseUrl);
+        } else {
+          LOGGER.info("Jar file {} already present in kie workbench: {}", jarFile.getName(), mavenBaseUrl);
+        }
+      } catch (CompletionException e) {
         throw new IOException(String
             .format(
                 "Error while uploading jar file %s to kie workbench. This could be also caused by missing dependencies.",
-                jarFile.getAbsolutePath()));
+                jarFile.getAbsolutePath()), e.getCause());
       }
     }
   }
 
+  /**
+   * Build the release and make it available for the KIE Server
+   *
+   * @return <code>true</code> if successful, otherwise <code>false</code>
+   */
+  private boolean provideArtifact() {
+    if (inMemoryDeployment && isEmbeddedServer()) {
+      // hand over the kmodule to the embedded kie-server directly, no kjar file and maven repository are involved
+      try {
+        InternalKieModule kieModule = kJarBuilder
+            .buildKieModule(dependenciesToDeploy, processesToDeploy, processesToMock, workItemHandlersToDeploy, serviceClassesToDeploy, globals);
+        KieRepository kieRepository = KieServices.Factory.get().getRepository();
+        kieRepository.removeKieModule(kieModule.getReleaseId());
+        kieRepository.addKieModule(kieModule);
+        LOGGER.info("Kmodule {} successful registered in kie repository", kieModule.getReleaseId());
+      } catch (Exception e) {
+        LOGGER.error("Error while creating the kmodule", e);
+        return false;
+      }
+    } else {
+      // first we have to build the kjar release file by our own
+      Map<String, File> jarAndPomFile;
+      try {
+        jarAndPomFile = kJarBuilder
+            .buildKjar(dependenciesToDeploy, processesToDeploy, processesToMock, workItemHandlersToDeploy, serviceClassesToDeploy, globals);
+      } catch (Exception e) {
+        LOGGER.error("Error while creating the kjar file", e);
+        return false;
+      }
+
+      // next we can upload this file into kie-server maven repo
+      try {
+        uploadJar(jarAndPomFile.get("jar"), jarAndPomFile.get("pom"));
+      } catch (Exception e) {
+        LOGGER.error("Error while uploading jar file {}. This could be also caused by missing dependencies", jarAndPomFile.get("jar").getAbsolutePath(), e);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check if the deployment target is a KIE Server on this host
+   *
+   * @return <code>true</code> if the KIE Server runs on localhost
+   */
+  private boolean isLocalServer() {
+    return kieServerHost.contains("localhost") || kieServerHost.contains("127.0.0.1");
+  }
+
+  /**
+   * Check if the deployment target is the KIE Server running embedded in this application. A KIE Server on localhost
+   * (e.g. in a docker container) is not necessarily the embedded one, so the server id of the target is compared to
+   * the server id of the embedded KIE Server.
+   *
+   * @return <code>true</code> if the KIE Server runs embedded in this application
+   */
+  private synchronized boolean isEmbeddedServer() {
+    if (embeddedServer == null) {
+      KieServer kieServer = embeddedKieServer.getIfAvailable();
+      if (kieServer == null) {
+        embeddedServer = false;
+      } else {
+        String embeddedServerId = kieServer.getInfo().getResult().getServerId();
+        ServiceResponse<KieServerInfo> targetInfo = kieClient.getKieServicesClient().getServerInfo();
+        embeddedServer = targetInfo.getType() == ResponseType.SUCCESS
+            && embeddedServerId.equals(targetInfo.getResult().getServerId());
+      }
+      LOGGER.debug("Deployment target {} is the embedded KIE Server: {}", kieServerUrl, embeddedServer);
+    }
+    return embeddedServer;
+  }
+
   /**
    * Start a new Container within KIE Server
    *
    * @throws Exception on any Exception
    */
   private void createContainer() throws Exception {
-    String containerId = release.getContainerId();
-    String containerAlias = release.getContainerAlias();
+    createContainer(KieContainerStatus.STARTED);
+  }
+
+  /**
+   * Start a new Container within KIE Server
+   *
+   * @param status the status of the container after creation: {@link KieContainerStatus#STARTED} or
+   *               {@link KieContainerStatus#DEACTIVATED}
+   * @throws Exception on any Exception
+   */
+  private void createContainer(KieContainerStatus status) throws Exception {
+    createContainer(release.getContainerId(), release.getContainerAlias(), status);
+  }
+
+  /**
+   * Start a new Container of the release within KIE Server
+   *
+   * @param containerId    the container id
+   * @param containerAlias the container alias or <code>null</code>
+   * @param status         the status of the container after creation: {@link KieContainerStatus#STARTED} or
+   *                       {@link KieContainerStatus#DEACTIVATED}
+   * @throws Exception on any Exception
+   */
+  private void createContainer(String containerId, String containerAlias, KieContainerStatus status)
+      throws Exception {
     ReleaseId releaseId = release.getReleaseIdForServerAPI();
     KieContainerResource resource = new KieContainerResource(containerId, releaseId);
     resource.setContainerAlias(containerAlias);
+    resource.addConfigItem(new KieServerConfigItem(AUDIT_MODE_CONFIG_ITEM, release.getAuditMode().name(),
+        KieServerConstants.CAPABILITY_BPM));
+    if (status == KieContainerStatus.DEACTIVATED) {
+      resource.setStatus(status);
+    }
 
     // send deployment command to server
     ServiceResponse<KieContainerResource> createResponse = kieClient.getKieServicesClient()
@@ -415,9 +584,196 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
       throw new Exception(
           String.format("Error while creating container %s. Message: %s", containerId, createResponse.getMsg()));
     }
+    if (status == KieContainerStatus.DEACTIVATED) {
+      KieContainerResource created = createResponse.getResult() != null ? createResponse.getResult()
+          : kieClient.getKieServicesClient().getContainerInfo(containerId).getResult();
+      if (created == null || created.getStatus() != status) {
+        // a server that ignores the requested status has started the container and routes the alias to it already
+        throw new IllegalStateException(String.format(
+            "KIE Container %s was created in status %s instead of %s, the KIE Server does not support deactivated "
+                + "containers", containerId, created == null ? null : created.getStatus(), status));
+      }
+    }
     LOGGER.info("Container {} for release {} successful created", containerId, releaseId);
   }
 
+  @Override
+  public boolean deployBlueGreen(String oldContainerId) {
+    String containerId = release.getContainerId();
+    String containerAlias = release.getContainerAlias();
+    if (containerAlias == null || containerAlias.isEmpty()) {
+      LOGGER.error("Blue/green deployment requires a container alias");
+      return false;
+    }
+    // only a container created by this deployment may be rolled back, never the old or any other existing container
+    if (containerId.equals(oldContainerId)) {
+      LOGGER.error("Blue/green deployment requires a new release version, KIE Container {} is the old one",
+          containerId);
+      return false;
+    }
+    if (kieClient.getKieServicesClient().getContainerInfo(containerId).getResult() != null) {
+      LOGGER.error("Blue/green deployment requires a new KIE Container, KIE Container {} already exists", containerId);
+      return false;
+    }
+    KieContainerResource oldContainer = kieClient.getKieServicesClient().getContainerInfo(oldContainerId).getResult();
+    if (oldContainer == null || !containerAlias.equals(oldContainer.getContainerAlias())) {
+      LOGGER.warn("KIE Container {} is not deployed with alias {}, requests are not routed from there", oldContainerId,
+          containerAlias);
+    } else if (new ComparableVersion(release.getVersion())
+        .compareTo(new ComparableVersion(oldContainer.getReleaseId().getVersion())) <= 0) {
+      // the alias is resolved to the started container with the highest version
+      LOGGER.error("Blue/green deployment requires a release version higher than {} of KIE Container {}",
+          oldContainer.getReleaseId().getVersion(), oldContainerId);
+      return false;
+    }
+    LOGGER.info("Blue/green deployment to KIE-Server...");
+    if (!provideArtifact()) {
+      return false;
+    }
+
+    // the alias is resolved to the started container with the highest version, so the new container is created
+    // deactivated and stays deactivated until it is warm
+    try {
+      createContainer(KieContainerStatus.DEACTIVATED);
+    } catch (Exception e) {
+      LOGGER.error("Error while creating container {}", containerId, e);
+      // the container did not exist before, so a partially created (not active) container is removed
+      rollback(containerId);
+      return false;
+    }
+
+    try {
+      long start = System.currentTimeMillis();
+      warmUp(containerId);
+      // a deactivated container does not start process instances, so the synthetic starts use a staging container
+      warmUpStarts(containerId + "-warmup");
+      LOGGER.info("KIE Container {} warmed up in {}ms", containerId, System.currentTimeMillis() - start);
+    } catch (Exception e) {
+      LOGGER.error("Error while warming up container {}, the alias keeps routing to KIE Container {}", containerId,
+          oldContainerId, e);
+      rollback(containerId);
+      return false;
+    }
+
+    try {
+      ServiceResponse<KieContainerResource> activateResponse = kieClient.getKieServicesClient()
+          .activateContainer(containerId);
+      if (activateResponse.getType() == ResponseType.FAILURE) {
+        throw new Exception(
+            String.format("Error while activating container %s. Message: %s", containerId, activateResponse.getMsg()));
+      }
+    } catch (Exception e) {
+      // once active the alias may have routed requests to the container, so it is never removed automatically
+      KieContainerResource container = kieClient.getKieServicesClient().getContainerInfo(containerId).getResult();
+      if (container == null || container.getStatus() != KieContainerStatus.STARTED) {
+        LOGGER.error("Error while activating container {}, the alias keeps routing to KIE Container {}", containerId,
+            oldContainerId, e);
+        rollback(containerId);
+        return false;
+      }
+      LOGGER.warn("Error while activating container {}, but it is active", containerId, e);
+    }
+    LOGGER.info("Alias {} switched from KIE Container {} to {}", containerAlias, oldContainerId, containerId);
+    LOGGER.info("Blue/green deployment successful");
+    return true;
+  }
+
+  /**
+   * Load the process definitions of a container, so the definitions are compiled and cached before the first request
+   *
+   * @param containerId the container id
+   */
+  private void warmUp(String containerId) {
+    List<ProcessDefinition> processDefinitions = kieClient.getQueryClient()
+        .findProcessesByContainerId(containerId, 0, Integer.MAX_VALUE);
+    for (ProcessDefinition processDefinition : processDefinitions) {
+      kieClient.getProcessClient().getProcessDefinition(containerId, processDefinition.getId());
+      kieClient.getProcessClient().getUserTaskDefinitions(containerId, processDefinition.getId());
+    }
+    LOGGER.debug("{} process definitions of KIE Container {} loaded", processDefinitions.size(), containerId);
+  }
+
+  /**
+   * Start and abort instances of the mocked processes in a staging container (without alias) of the release, so the
+   * release is known to start and the shared runtime (classes, database connections) is initialized before the first
+   * request. The staging container is removed afterwards.
+   *
+   * @param stagingContainerId the container id of the staging container
+   * @throws Exception if the staging container could not be created or a process could not be started
+   */
+  private void warmUpStarts(String stagingContainerId) throws Exception {
+    if (warmUpStarts <= 0 || processesToMock.isEmpty()) {
+      return;
+    }
+    createContainer(stagingContainerId, null, KieContainerStatus.STARTED);
+    try {
+      for (int i = 0; i < warmUpStarts; i++) {
+        for (Class<? extends IDeployableBPMNProcess> processToMock : processesToMock) {
+          if (processToMock.isInterface() || Modifier.isAbstract(processToMock.getModifiers())) {
+            continue;
+          }
+          String processId = processToMock.newInstance().getProcessId();
+          Long processInstanceId = kieClient.getProcessClient().startProcess(stagingContainerId, processId);
+          ProcessInstance processInstance = kieClient.getProcessClient()
+              .getProcessInstance(stagingContainerId, processInstanceId);
+          if (Integer.valueOf(org.kie.api.runtime.process.ProcessInstance.STATE_ACTIVE)
+              .equals(processInstance.getState())) {
+            kieClient.getProcessClient().abortProcessInstance(stagingContainerId, processInstanceId);
+          }
+        }
+      }
+    } finally {
+      ServiceResponse<Void> responseDispose = kieClient.getKieServicesClient().disposeContainer(stagingContainerId);
+      if (responseDispose.getType() == ResponseType.FAILURE) {
+        LOGGER.error("Error disposing staging KIE Container {}. Message: {}", stagingContainerId,
+            responseDispose.getMsg());
+      }
+    }
+  }
+
+  /**
+   * Remove a new container after a failed blue/green deployment before it was activated, so the alias never routed
+   * requests to it
+   *
+   * @param containerId the container id
+   */
+  private void rollback(String containerId) {
+    try {
+      KieContainerResource container = kieClient.getKieServicesClient().getContainerInfo(containerId).getResult();
+      if (container != null && container.getStatus() == KieContainerStatus.STARTED) {
+        // e.g. a server that ignored the deactivated status, the alias may have routed requests to the container
+        LOGGER.error("KIE Container {} is active and may contain process instances, it has to be removed manually",
+            containerId);
+        return;
+      }
+      ServiceResponse<Void> responseDispose = kieClient.getKieServicesClient().disposeContainer(containerId);
+      if (responseDispose.getType() == ResponseType.FAILURE) {
+        LOGGER.error("Error disposing KIE Container {}. Message: {}", containerId, responseDispose.getMsg());
+      }
+    } catch (Exception e) {
+      LOGGER.error("Error while rolling back KIE Container {}", containerId, e);
+    }
+  }
+
+  /**
+   * Get the audit mode of the release deployed in a container. The process instances of a container are read from the
+   * process instance logs, so they can't be found in audit mode NONE. The process instance logs are written within the
+   * engine transaction in the audit modes JPA and ASYNC.
+   *
+   * @param container the container
+   * @return the audit mode, JPA for containers deployed before the audit mode was configurable
+   */
+  private AuditMode getAuditMode(KieContainerResource container) {
+    if (container != null && container.getConfigItems() != null) {
+      for (KieServerConfigItem configItem : container.getConfigItems()) {
+        if (AUDIT_MODE_CONFIG_ITEM.equals(configItem.getName())) {
+          return AuditMode.valueOf(configItem.getValue());
+        }
+      }
+    }
+    return AuditMode.JPA;
+  }
+
   @Override
   public boolean undeploy(boolean cancelAllRunningInstances) {
     return undeploy(release.getContainerId(), cancelAllRunningInstances);
@@ -441,43 +797,25 @@ public class KieClientDeploymentHelper implements IDeploymentHelper {
         return false;
       }
 
-      boolean retry;
-      do {
-        retry = false;
-
-        // check if we have running process instances
-        List<ProcessInstance> processInstances = kieClient.getProcessClient()
-            .findProcessInstances(containerId, 0, Integer.MAX_VALUE);
-        List<Long> processInstanceIdsToAbort = new ArrayList<>();
-        for (int i = 0; i < processInstances.size(); i++) {
-          if (i == chunkSize) {
-            retry = true;
-            break;
-          }
-          processInstanceIdsToAbort.add(processInstances.get(i).getId());
+      if (getAuditMode(container) == AuditMode.NONE) {
+        LOGGER.error("Error disposing KIE Container {}. Its active process instances can't be found in audit mode {}",
+            containerId, AuditMode.NONE);
+        return false;
+      }
+      if (!cancelAllRunningInstances) {
+        if (!ProcessInstancePager.scan(kieClient.getQueryClient(), containerId, 1).nextPage().isEmpty()) {
+          LOGGER.error("Error disposing KIE Container {}. It contains active process instances", containerId);
+          return false;
         }
-
-        if (processInstanceIdsToAbort.size() > 0) {
-          if (!cancelAllRunningInstances) {
-            LOGGER.error("Error disposing KIE Container {}. It contains active process instances", containerId);
-            return false;
-          }else {
-            try {
-              kieClient.getProcessClient().abortProcessInstances(containerId, processInstanceIdsToAbort);
-              LOGGER.info("{} Process Instances aborted", processInstanceIdsToAbort.size());
-            } catch (KieServicesHttpException e) {
-              // this case happens when a subprocess instance was already canceled by the related parent instance
-              if (e.getResponseBody().contains("Could not find process instance with id")) {
-                LOGGER.warn("Error while aborting {} Process Instances. Message: {}", processInstanceIdsToAbort.size(),
-                    e.getResponseBody());
-                retry = true;
-              } else {
-                throw e;
-              }
-            }
-          }
+      } else {
+        try {
+          processInstanceAborter.abortAll(containerId);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          LOGGER.error("Interrupted while aborting Process Instances of KIE Container {}", containerId);
+          return false;
         }
-      } while (retry);
+      }
 
       ServiceResponse<Void> responseDispose = kieClient.getKieServicesClient().disposeContainer(containerId);
       if (responseDispose.getType() == ResponseType.FAILURE) {
@@ -17,20 +17,52 @@ package com.arvato.workflow.kie4developer.common.impl;
 
 import com.arvato.workflow.kie4developer.common.interfaces.IExecutionHelper;
 import com.arvato.workflow.kie4developer.common.interfaces.IRelease;
+import com.arvato.workflow.kie4developer.common.model.ProcessStartRequest;
+import com.arvato.workflow.kie4developer.common.model.ProcessStartResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.annotation.PreDestroy;
 import org.kie.server.api.model.instance.TaskSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
 public class KieClientExecutionHelper implements IExecutionHelper {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(KieClientExecutionHelper.class);
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
   private IRelease release;
   private KieClient kieClient;
+  private ExecutorService startWorkers;
+  private int taskPageSize;
 
-  public KieClientExecutionHelper(IRelease release, KieClient kieClient) {
+  public KieClientExecutionHelper(IRelease release, KieClient kieClient,
+      @Value("${spring.application.start.parallelism}") int startParallelism,
+      @Value("${spring.application.task.pagesize}") int taskPageSize) {
     this.release = release;
     this.kieClient = kieClient;
+    this.startWorkers = Executors.newFixedThreadPool(Math.max(1, startParallelism), runnable -> {
+      Thread thread = new Thread(runnable, "KieClientExecutionHelper-worker-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.taskPageSize = Math.max(1, taskPageSize);
   }
 
   @Override
@@ -46,6 +78,51 @@ public class KieClientExecutionHelper implements IExecutionHelper {
     return kieClient.getProcessClient().startProcess(deploymentId, processId, params);
   }
 
+  @Override
+  public List<ProcessStartResult> startNewProcessInstances(String deploymentId, List<ProcessStartRequest> requests) {
+    if (requests.isEmpty()) {
+      return new ArrayList<>();
+    }
+    ProcessStartResult[] results = new ProcessStartResult[requests.size()];
+    long start = System.currentTimeMillis();
+    // every start is a task of its own, so an idle worker takes the next start and slow starts do not hold back others
+    List<Future<?>> starts = new ArrayList<>();
+    try {
+      for (int i = 0; i < requests.size(); i++) {
+        int index = i;
+        starts.add(startWorkers.submit(() -> {
+          ProcessStartRequest request = requests.get(index);
+          try {
+            results[index] = ProcessStartResult
+                .success(request, startNewProcessInstance(deploymentId, request.getProcessId(), request.getParams()));
+          } catch (Exception e) {
+            LOGGER.warn("Error while starting process {}: {}", request.getProcessId(), e.getMessage());
+            results[index] = ProcessStartResult.failure(request, e);
+          }
+        }));
+      }
+      for (Future<?> processStart : starts) {
+        processStart.get();
+      }
+    } catch (InterruptedException e) {
+      starts.forEach(processStart -> processStart.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while starting process instances", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    LOGGER.debug("{} process instances started in {}ms", requests.size(), System.currentTimeMillis() - start);
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Stop the workers for starting process instances
+   */
+  @PreDestroy
+  public void close() {
+    startWorkers.shutdownNow();
+  }
+
   @Override
   public void abortProcessInstance(Long processInstanceId) {
     kieClient.getProcessClient().abortProcessInstance(release.getContainerId(), processInstanceId);
@@ -56,6 +133,42 @@ public class KieClientExecutionHelper implements IExecutionHelper {
     return kieClient.getTaskClient().findTasksAssignedAsPotentialOwner(username, 0, Integer.MAX_VALUE);
   }
 
+  @Override
+  public List<TaskSummary> getTasks(String username, List<String> status, String filter, int page, int pageSize,
+      String sort, boolean ascending) {
+    return kieClient.getTaskClient()
+        .findTasksAssignedAsPotentialOwner(username, filter, status, page, pageSize, sort, ascending);
+  }
+
+  @Override
+  public Stream<TaskSummary> streamTasks(String username, List<String> status, String filter, String sort,
+      boolean ascending) {
+    Iterator<TaskSummary> iterator = new Iterator<TaskSummary>() {
+      private int page = 0;
+      private boolean lastPage = false;
+      private Iterator<TaskSummary> currentPage = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!currentPage.hasNext() && !lastPage) {
+          List<TaskSummary> tasks = getTasks(username, status, filter, page++, taskPageSize, sort, ascending);
+          lastPage = tasks.size() < taskPageSize;
+          currentPage = tasks.iterator();
+        }
+        return currentPage.hasNext();
+      }
+
+      @Override
+      public TaskSummary next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return currentPage.next();
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+  }
+
   @Override
   public void delegateTask(Long taskId, String username, String newUsername) {
     kieClient.getTaskClient().delegateTask(release.getContainerId(), taskId, username, newUsername);
@@ -58,8 +58,21 @@ public class ProcessBuilder {
    * @return the layouted BPM Process Definition Resource
    */
   public static List<Resource> build(IDeployableBPMNProcess deployableBPMNProcess) throws IOException {
+    return build(deployableBPMNProcess, deployableBPMNProcess.buildBPMNModel());
+  }
+
+  /**
+   * Build the BPM Process Definition (XML) and Image (SVG)
+   *
+   * @param deployableBPMNProcess the Business Process
+   * @param bpmnModel             the result of {@link IDeployableBPMNProcess#buildBPMNModel()}, <code>null</code> to
+   *                              build the model via fluent API
+   * @return the layouted BPM Process Definition Resource
+   */
+  public static List<Resource> build(IDeployableBPMNProcess deployableBPMNProcess, Resource bpmnModel)
+      throws IOException {
     List<Resource> resList = new ArrayList<>();
-    Resource res = deployableBPMNProcess.buildBPMNModel();
+    Resource res = bpmnModel;
     if (res == null) {
       RuleFlowProcessFactory factory = RuleFlowProcessFactory.createProcess(deployableBPMNProcess.getProcessId());
       deployableBPMNProcess.buildBPMNModel(factory);
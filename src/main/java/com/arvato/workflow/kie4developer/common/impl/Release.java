@@ -16,8 +16,10 @@
 package com.arvato.workflow.kie4developer.common.impl;
 
 import com.arvato.workflow.kie4developer.common.interfaces.IRelease;
+import com.arvato.workflow.kie4developer.common.model.AuditMode;
 import org.apache.maven.model.Model;
 import org.kie.api.KieServices;
+import org.kie.internal.runtime.conf.RuntimeStrategy;
 import org.kie.server.api.model.ReleaseId;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -34,13 +36,21 @@ public class Release implements IRelease {
   private Boolean includeProcessInstanceListener;
   private Boolean includeTaskEmailEventListener;
   private Boolean includeTaskEventListener;
+  private RuntimeStrategy runtimeStrategy;
+  private AuditMode auditMode;
+  private boolean jsonMarshalling;
+  private boolean externalizedVariables;
 
   public Release(
       EffectivePomReader effectivePomReader,
       @Value("${spring.application.deploymentTargetBICCW}") Boolean deploymentTargetBICCW,
       @Value("${spring.application.biccw.include.processinstancelistener}") Boolean includeProcessInstanceListener,
       @Value("${spring.application.biccw.include.taskemaileventlistener}") Boolean includeTaskEmailEventListener,
-      @Value("${spring.application.biccw.include.taskeventListener}") Boolean includeTaskEventListener
+      @Value("${spring.application.biccw.include.taskeventListener}") Boolean includeTaskEventListener,
+      @Value("${spring.application.runtimestrategy}") RuntimeStrategy runtimeStrategy,
+      @Value("${spring.application.auditmode}") AuditMode auditMode,
+      @Value("${spring.application.marshalling.json}") boolean jsonMarshalling,
+      @Value("${spring.application.contentstore.enabled}") boolean externalizedVariables
       ) {
     Model pom = effectivePomReader.getPomModel();
     this.groupId = pom.getGroupId();
@@ -52,6 +62,10 @@ public class Release implements IRelease {
     this.includeProcessInstanceListener = includeProcessInstanceListener;
     this.includeTaskEmailEventListener = includeTaskEmailEventListener;
     this.includeTaskEventListener = includeTaskEventListener;
+    this.runtimeStrategy = runtimeStrategy;
+    this.auditMode = auditMode;
+    this.jsonMarshalling = jsonMarshalling;
+    this.externalizedVariables = externalizedVariables;
   }
 
   @Override
@@ -109,6 +123,26 @@ public class Release implements IRelease {
     return includeTaskEventListener;
   }
 
+  @Override
+  public RuntimeStrategy getRuntimeStrategy() {
+    return runtimeStrategy;
+  }
+
+  @Override
+  public AuditMode getAuditMode() {
+    return auditMode;
+  }
+
+  @Override
+  public boolean isJsonMarshalling() {
+    return jsonMarshalling;
+  }
+
+  @Override
+  public boolean isExternalizedVariables() {
+    return externalizedVariables;
+  }
+
   @Override
   public org.kie.server.api.model.ReleaseId getReleaseIdForServerAPI() {
     return new ReleaseId(getGroupId(), getArtifactId(), getVersion());
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.index;
+
+import com.arvato.workflow.kie4developer.common.interfaces.IDeployableBPMNProcess;
+import com.arvato.workflow.kie4developer.common.interfaces.IDeployableWorkItemHandler;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Index of the deployable classes (processes, services, workitemhandler and serializable classes) generated at build
+ * time by the {@link ClassIndexProcessor}. Classpath roots without index (e.g. dependency jars that were compiled
+ * without the processor) are looked up via classpath scan and merged with the indexed classes.
+ *
+ * @author TRIBE01
+ */
+@Component
+public class ClassIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClassIndex.class);
+  public static final String INDEX_RESOURCE = "META-INF/kie4developer/class-index";
+  public static final String CATEGORY_TYPE = "type";
+  public static final String CATEGORY_PROCESS = "process";
+  public static final String CATEGORY_WORKITEMHANDLER = "workitemhandler";
+  public static final String CATEGORY_SERIALIZABLE = "serializable";
+  private ClassLoader classLoader;
+  private Set<String> indexedRoots;
+  private Map<String, Set<String>> categoriesByClassName;
+
+  public ClassIndex() {
+    this(ClassIndex.class.getClassLoader());
+  }
+
+  ClassIndex(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+    this.indexedRoots = new HashSet<>();
+    this.categoriesByClassName = load();
+  }
+
+  /**
+   * Get all sub types of a type within a package
+   *
+   * @param packageName the package (including sub packages) to search in
+   * @param type        the super type
+   * @param <T>         the super type
+   * @return the found sub types
+   */
+  public <T> Set<Class<? extends T>> getSubTypesOf(String packageName, Class<T> type) {
+    Set<Class<? extends T>> subTypes = new HashSet<>();
+    if (categoriesByClassName != null) {
+      String category = getCategory(type);
+      for (Map.Entry<String, Set<String>> entry : categoriesByClassName.entrySet()) {
+        String className = entry.getKey();
+        if (!className.startsWith(packageName) || !entry.getValue().contains(category)) {
+          continue;
+        }
+        try {
+          Class<?> clazz = Class.forName(className, false, classLoader);
+          if (type.isAssignableFrom(clazz) && !type.equals(clazz)) {
+            subTypes.add(clazz.asSubclass(type));
+          }
+        } catch (ClassNotFoundException | LinkageError e) {
+          LOGGER.debug("Skipping indexed class {}: {}", className, e.toString());
+        }
+      }
+    }
+    Set<URL> unindexedRoots = new HashSet<>();
+    for (URL root : ClasspathHelper.forPackage(packageName, classLoader)) {
+      if (!indexedRoots.contains(normalize(root.toExternalForm()))) {
+        unindexedRoots.add(root);
+      }
+    }
+    if (!unindexedRoots.isEmpty()) {
+      LOGGER.debug("Scanning {} classpath roots without class index for sub types of {} in {}", unindexedRoots.size(),
+          type.getName(), packageName);
+      subTypes.addAll(new Reflections(new ConfigurationBuilder()
+          .setUrls(unindexedRoots)
+          .addClassLoader(classLoader)
+          .filterInputsBy(new FilterBuilder().includePackage(packageName))
+          .setScanners(new SubTypesScanner(false)))
+          .getSubTypesOf(type));
+    }
+    return subTypes;
+  }
+
+  /**
+   * Get the index category for a type
+   *
+   * @param type the type
+   * @return the category
+   */
+  private String getCategory(Class<?> type) {
+    if (IDeployableBPMNProcess.class.equals(type)) {
+      return CATEGORY_PROCESS;
+    } else if (IDeployableWorkItemHandler.class.equals(type)) {
+      return CATEGORY_WORKITEMHANDLER;
+    } else if (Serializable.class.equals(type)) {
+      return CATEGORY_SERIALIZABLE;
+    }
+    return CATEGORY_TYPE;
+  }
+
+  /**
+   * Load and merge all indexes on the classpath
+   *
+   * @return the categories by class name or <code>null</code> if no index is available
+   */
+  private Map<String, Set<String>> load() {
+    try {
+      Enumeration<URL> indexUrls = classLoader.getResources(INDEX_RESOURCE);
+      if (!indexUrls.hasMoreElements()) {
+        return null;
+      }
+      Map<String, Set<String>> index = new TreeMap<>();
+      for (URL indexUrl : Collections.list(indexUrls)) {
+        LOGGER.debug("Reading class index {}", indexUrl);
+        String indexUrlString = indexUrl.toExternalForm();
+        indexedRoots.add(normalize(indexUrlString.substring(0, indexUrlString.length() - INDEX_RESOURCE.length())));
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(indexUrl.openStream(), StandardCharsets.UTF_8))) {
+          read(reader, index);
+        }
+      }
+      return index;
+    } catch (IOException e) {
+      LOGGER.warn("Error while reading class index, falling back to classpath scan", e);
+      indexedRoots.clear();
+      return null;
+    }
+  }
+
+  /**
+   * Normalize the url of a classpath root for comparison
+   *
+   * @param root the classpath root url
+   * @return the url without trailing separators
+   */
+  private static String normalize(String root) {
+    String normalized = root;
+    while (normalized.endsWith("/") || normalized.endsWith("!")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    return normalized;
+  }
+
+  /**
+   * Read the entries of an index. Each line has the format <code>category:class name</code>.
+   *
+   * @param reader the index reader
+   * @param index  the index to add the entries to
+   * @throws IOException on any I/O error
+   */
+  static void read(BufferedReader reader, Map<String, Set<String>> index) throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      int separator = line.indexOf(':');
+      if (separator > 0) {
+        index.computeIfAbsent(line.substring(separator + 1).trim(), className -> new TreeSet<>())
+            .add(line.substring(0, separator));
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.index;
+
+import com.arvato.workflow.kie4developer.common.interfaces.IDeployableBPMNProcess;
+import com.arvato.workflow.kie4developer.common.interfaces.IDeployableWorkItemHandler;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes the {@link ClassIndex} of all compiled classes at build time. It gets registered
+ * automatically for all projects that compile against KIE4Developer. On incremental builds the existing index gets
+ * extended.
+ *
+ * @author TRIBE01
+ */
+@SupportedAnnotationTypes("*")
+public class ClassIndexProcessor extends AbstractProcessor {
+
+  private final Map<String, Set<String>> categoriesByClassName = new TreeMap<>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      if (!categoriesByClassName.isEmpty()) {
+        writeIndex();
+      }
+    } else {
+      for (Element element : roundEnv.getRootElements()) {
+        indexType(element);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Add a type and its nested types to the index
+   *
+   * @param element the type
+   */
+  private void indexType(Element element) {
+    if (!(element instanceof TypeElement)) {
+      return;
+    }
+    TypeElement typeElement = (TypeElement) element;
+    Types types = processingEnv.getTypeUtils();
+    TypeMirror type = types.erasure(typeElement.asType());
+    Set<String> categories = new TreeSet<>();
+    categories.add(ClassIndex.CATEGORY_TYPE);
+    if (isAssignable(type, IDeployableBPMNProcess.class)) {
+      categories.add(ClassIndex.CATEGORY_PROCESS);
+    }
+    if (isAssignable(type, IDeployableWorkItemHandler.class)) {
+      categories.add(ClassIndex.CATEGORY_WORKITEMHANDLER);
+    }
+    if (isAssignable(type, Serializable.class)) {
+      categories.add(ClassIndex.CATEGORY_SERIALIZABLE);
+    }
+    categoriesByClassName.put(processingEnv.getElementUtils().getBinaryName(typeElement).toString(), categories);
+    for (Element enclosedElement : typeElement.getEnclosedElements()) {
+      indexType(enclosedElement);
+    }
+  }
+
+  private boolean isAssignable(TypeMirror type, Class<?> superType) {
+    TypeElement superTypeElement = processingEnv.getElementUtils().getTypeElement(superType.getName());
+    return superTypeElement != null && processingEnv.getTypeUtils()
+        .isAssignable(type, processingEnv.getTypeUtils().erasure(superTypeElement.asType()));
+  }
+
+  /**
+   * Write the index into the class output. Entries of an existing index are kept for all classes that were not
+   * compiled within this run.
+   */
+  private void writeIndex() {
+    Map<String, Set<String>> index = new TreeMap<>();
+    try {
+      FileObject existingIndex = processingEnv.getFiler()
+          .getResource(StandardLocation.CLASS_OUTPUT, "", ClassIndex.INDEX_RESOURCE);
+      try (BufferedReader reader = new BufferedReader(
+          new InputStreamReader(existingIndex.openInputStream(), StandardCharsets.UTF_8))) {
+        ClassIndex.read(reader, index);
+      }
+    } catch (IOException e) {
+      // no existing index
+    }
+    index.putAll(categoriesByClassName);
+
+    try {
+      FileObject indexFile = processingEnv.getFiler()
+          .createResource(StandardLocation.CLASS_OUTPUT, "", ClassIndex.INDEX_RESOURCE);
+      try (Writer writer = indexFile.openWriter()) {
+        for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+          for (String category : entry.getValue()) {
+            writer.write(category + ":" + entry.getKey() + "\n");
+          }
+        }
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Kind.WARNING,
+          "Could not write class index: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.instance;
+
+import com.arvato.workflow.kie4developer.common.impl.KieClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.kie.server.api.exception.KieServicesHttpException;
+import org.kie.server.api.model.instance.ProcessInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Aborts all active process instances of a container. The process instances are aborted in batches, several batches are
+ * sent concurrently to the KIE Server and the next page is read while the previous batches are still in flight.
+ *
+ * @author TRIBE01
+ */
+@Component
+public class ProcessInstanceAborter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProcessInstanceAborter.class);
+  private static final Pattern NOT_FOUND = Pattern.compile("Could not find process instance with id (\\d+)");
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private KieClient kieClient;
+  private int chunkSize;
+  private int parallelism;
+
+  public ProcessInstanceAborter(KieClient kieClient,
+      @Value("${spring.application.chunksize}") int chunkSize,
+      @Value("${spring.application.abort.parallelism}") int parallelism) {
+    this.kieClient = kieClient;
+    this.chunkSize = Math.max(1, chunkSize);
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Abort all active process instances of a container
+   *
+   * @param containerId the container id
+   * @return the count of aborted process instances
+   * @throws InterruptedException if interrupted while waiting for the batches in flight
+   * @throws KieServicesHttpException if a batch could not be aborted
+   */
+  public long abortAll(String containerId) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    AtomicLong aborted = new AtomicLong();
+    AtomicLong gone = new AtomicLong();
+    Queue<RuntimeException> errors = new ConcurrentLinkedQueue<>();
+    Semaphore inFlight = new Semaphore(parallelism);
+    ExecutorService workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "ProcessInstanceAborter-worker-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      // aborted process instances leave the container, so the container gets drained page by page. Batches in flight
+      // are still returned by the query and thereby skipped by the pager.
+      ProcessInstancePager pager = ProcessInstancePager.drain(kieClient.getQueryClient(), containerId, chunkSize);
+      List<ProcessInstance> processInstances;
+      while (errors.isEmpty() && !(processInstances = pager.nextPage()).isEmpty()) {
+        List<Long> batch = new ArrayList<>();
+        for (ProcessInstance processInstance : processInstances) {
+          batch.add(processInstance.getId());
+        }
+        inFlight.acquire();
+        workers.execute(() -> {
+          try {
+            abortBatch(containerId, batch, aborted, gone);
+          } catch (RuntimeException e) {
+            errors.add(e);
+          } finally {
+            inFlight.release();
+          }
+          long duration = Math.max(1, System.currentTimeMillis() - start);
+          LOGGER.info("Abort progress: {} process instances aborted, {} already gone ({} per second)", aborted.get(),
+              gone.get(), aborted.get() * 1000 / duration);
+        });
+      }
+      // wait for the batches in flight
+      inFlight.acquire(parallelism);
+    } finally {
+      workers.shutdownNow();
+    }
+    if (!errors.isEmpty()) {
+      RuntimeException error = errors.poll();
+      errors.forEach(error::addSuppressed);
+      throw error;
+    }
+    LOGGER.info("{} Process Instances aborted in {}ms", aborted.get(), System.currentTimeMillis() - start);
+    return aborted.get();
+  }
+
+  /**
+   * Abort a batch of process instances. The KIE Server aborts the process instances of a batch in order and stops at a
+   * process instance that is already gone (e.g. a subprocess instance that was canceled by the related parent
+   * instance). The batch is split at that process instance: the process instances before it were aborted (unless the
+   * server rolled back the batch, which is checked with the last of them) and the process instances after it are sent
+   * again.
+   *
+   * @param containerId        the container id
+   * @param processInstanceIds the process instance ids
+   * @param aborted            the counter of aborted process instances
+   * @param gone               the counter of process instances that were already gone
+   */
+  void abortBatch(String containerId, List<Long> processInstanceIds, AtomicLong aborted, AtomicLong gone) {
+    List<Long> remaining = new ArrayList<>(processInstanceIds);
+    while (!remaining.isEmpty()) {
+      try {
+        kieClient.getProcessClient().abortProcessInstances(containerId, remaining);
+        aborted.addAndGet(remaining.size());
+        return;
+      } catch (KieServicesHttpException e) {
+        Matcher matcher = NOT_FOUND.matcher(String.valueOf(e.getResponseBody()));
+        int index = matcher.find() ? remaining.indexOf(Long.valueOf(matcher.group(1))) : -1;
+        if (index < 0) {
+          throw e;
+        }
+        gone.incrementAndGet();
+        if (index > 0 && isActive(remaining.get(index - 1))) {
+          remaining.remove(index);
+        } else {
+          aborted.addAndGet(index);
+          remaining = new ArrayList<>(remaining.subList(index + 1, remaining.size()));
+        }
+        LOGGER.debug("Process Instance {} already gone, retrying the remaining {} Process Instances", matcher.group(1),
+            remaining.size());
+      }
+    }
+  }
+
+  /**
+   * Check if a process instance is still active
+   *
+   * @param processInstanceId the process instance id
+   * @return true if the process instance is active
+   */
+  private boolean isActive(Long processInstanceId) {
+    try {
+      ProcessInstance processInstance = kieClient.getQueryClient().findProcessInstanceById(processInstanceId);
+      return processInstance != null
+          && processInstance.getState() == org.kie.api.runtime.process.ProcessInstance.STATE_ACTIVE;
+    } catch (KieServicesHttpException e) {
+      return false;
+    }
+  }
+}
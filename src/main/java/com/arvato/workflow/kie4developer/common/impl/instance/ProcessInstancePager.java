@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.instance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.kie.server.api.model.instance.ProcessInstance;
+import org.kie.server.client.QueryServicesClient;
+
+/**
+ * Pages through the active process instances of a container ordered by process instance id, so only one page is held
+ * in memory at a time. Two modes are supported:
+ * <ul>
+ * <li>scan: the process instances remain in the container while paging (e.g. for reading)</li>
+ * <li>drain: the process instances leave the container after they were returned (e.g. abort or migration). Process
+ * instances that were already returned but are still present (in flight or failed) precede the new ones, so the next
+ * page starts at their count, which is re-checked on every page as process instances may have left meanwhile.</li>
+ * </ul>
+ * In both modes only the highest returned id and a count are kept, so the memory and the query size are constant.
+ * A pager is not thread-safe.
+ *
+ * @author TRIBE01
+ */
+public class ProcessInstancePager {
+
+  private static final String SORT_COLUMN = "ProcessInstanceId";
+  private static final List<Integer> ACTIVE = Collections.singletonList(org.kie.api.runtime.process.ProcessInstance.STATE_ACTIVE);
+  private final QueryServicesClient queryClient;
+  private final String containerId;
+  private final int pageSize;
+  private final boolean drain;
+  private int page = 0; // scan mode: next page to read
+  private int present = 0; // drain mode: count of returned process instances that were still present on the last read
+  private long lastId = -1; // highest returned process instance id
+  private boolean finished = false;
+
+  private ProcessInstancePager(QueryServicesClient queryClient, String containerId, int pageSize, boolean drain) {
+    this.queryClient = queryClient;
+    this.containerId = containerId;
+    this.pageSize = pageSize;
+    this.drain = drain;
+  }
+
+  /**
+   * Create a pager for process instances that remain in the container
+   *
+   * @param queryClient the query client
+   * @param containerId the container id
+   * @param pageSize    the number of process instances per page
+   * @return the pager
+   */
+  public static ProcessInstancePager scan(QueryServicesClient queryClient, String containerId, int pageSize) {
+    return new ProcessInstancePager(queryClient, containerId, pageSize, false);
+  }
+
+  /**
+   * Create a pager for process instances that leave the container after they were returned
+   *
+   * @param queryClient the query client
+   * @param containerId the container id
+   * @param pageSize    the number of process instances per page
+   * @return the pager
+   */
+  public static ProcessInstancePager drain(QueryServicesClient queryClient, String containerId, int pageSize) {
+    return new ProcessInstancePager(queryClient, containerId, pageSize, true);
+  }
+
+  /**
+   * Get the next page of process instances
+   *
+   * @return the process instances or an empty list if all process instances were returned
+   */
+  public List<ProcessInstance> nextPage() {
+    if (finished) {
+      return Collections.emptyList();
+    }
+    List<ProcessInstance> result = new ArrayList<>();
+    if (drain) {
+      // start at the page that holds the first new process instance if no returned process instance left meanwhile
+      int queryPage = present / pageSize;
+      List<ProcessInstance> processInstances = query(queryPage);
+      while (queryPage > 0 && (processInstances.isEmpty() || processInstances.get(0).getId() > lastId)) {
+        // returned process instances left meanwhile, so new ones could be on the previous page
+        processInstances = query(--queryPage);
+      }
+      int stillPresent = queryPage * pageSize; // all process instances before the page were returned already
+      while (true) {
+        for (ProcessInstance processInstance : processInstances) {
+          if (processInstance.getId() <= lastId) {
+            stillPresent++;
+          } else if (result.size() < pageSize) {
+            result.add(processInstance);
+          }
+        }
+        if (result.size() >= pageSize || processInstances.size() < pageSize) {
+          break;
+        }
+        processInstances = query(++queryPage);
+      }
+      present = stillPresent;
+      if (!result.isEmpty()) {
+        lastId = result.get(result.size() - 1).getId();
+      }
+    } else {
+      List<ProcessInstance> processInstances = query(page++);
+      for (ProcessInstance processInstance : processInstances) {
+        if (processInstance.getId() > lastId) {
+          result.add(processInstance);
+          lastId = processInstance.getId();
+        }
+      }
+      finished = processInstances.size() < pageSize;
+    }
+    finished = finished || result.isEmpty();
+    return result;
+  }
+
+  /**
+   * Read a page of active process instances ordered by id
+   *
+   * @param queryPage the page
+   * @return the process instances
+   */
+  private List<ProcessInstance> query(int queryPage) {
+    return queryClient.findProcessInstancesByContainerId(containerId, ACTIVE, queryPage, pageSize, SORT_COLUMN, true);
+  }
+
+  /**
+   * Get all process instances as lazy stream. The pages are read on demand.
+   *
+   * @return the stream of process instances
+   */
+  public Stream<ProcessInstance> stream() {
+    Iterator<ProcessInstance> iterator = new Iterator<ProcessInstance>() {
+      private Iterator<ProcessInstance> currentPage = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!currentPage.hasNext() && !finished) {
+          currentPage = nextPage().iterator();
+        }
+        return currentPage.hasNext();
+      }
+
+      @Override
+      public ProcessInstance next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return currentPage.next();
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+  }
+}
@@ -16,23 +16,48 @@
 package com.arvato.workflow.kie4developer.common.impl.kjar;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 /**
- * Helper to handle jar/kjar uploads to KIE workbench
+ * Helper to handle jar/kjar uploads to KIE workbench. All uploads share one pooled http client, so connections to the
+ * workbench are kept alive between uploads. The files are streamed to the server and never buffered in memory.
  *
  * @author TRIBE01
  */
@@ -40,12 +65,36 @@ import org.springframework.web.client.RestTemplate;
 public class JarUploader {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(JarUploader.class);
-  private String workbenchUser;
-  private String workbenchPassword;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private String authHeader;
+  private int retries;
+  private boolean checksums;
+  private CloseableHttpClient httpClient;
+  private RestTemplate restTemplate;
+  private ExecutorService executor;
 
-  public JarUploader(@Value("${kieworkbench.user}") String workbenchUser, @Value("${kieworkbench.pwd}") String workbenchPassword) {
-    this.workbenchUser = workbenchUser;
-    this.workbenchPassword = workbenchPassword;
+  public JarUploader(@Value("${kieworkbench.user}") String workbenchUser,
+      @Value("${kieworkbench.pwd}") String workbenchPassword,
+      @Value("${kieworkbench.upload.timeout.connect}") int connectTimeout,
+      @Value("${kieworkbench.upload.timeout.read}") int readTimeout,
+      @Value("${kieworkbench.upload.connections}") int maxConnections,
+      @Value("${kieworkbench.upload.gzip}") boolean gzip,
+      @Value("${kieworkbench.upload.retries}") int retries,
+      @Value("${kieworkbench.upload.checksums}") boolean checksums) {
+    String auth = workbenchUser + ":" + workbenchPassword;
+    byte[] encodedAuth = Base64.encodeBase64(auth.getBytes(Charset.forName("US-ASCII")));
+    this.authHeader = "Basic " + new String(encodedAuth);
+    this.retries = Math.max(0, retries);
+    this.checksums = checksums;
+    this.httpClient = buildHttpClient(connectTimeout, readTimeout, Math.max(1, maxConnections), gzip);
+    HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+    requestFactory.setBufferRequestBody(false); // stream the multipart body (chunked transfer encoding)
+    this.restTemplate = new RestTemplate(requestFactory);
+    this.executor = Executors.newFixedThreadPool(Math.max(1, maxConnections), runnable -> {
+      Thread thread = new Thread(runnable, "JarUploader-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 
   /**
@@ -58,29 +107,180 @@ public class JarUploader {
   public ResponseEntity<String> uploadFile(File file, String url) {
     LOGGER.debug("Uploading '{}' to '{}'", file.getAbsolutePath(), url);
     // Build header with basic auth & file upload http content type
-    HttpHeaders headers = buildAuthHeader();
+    HttpHeaders headers = buildAuthHeader(MediaType.MULTIPART_FORM_DATA);
     // add the file to request
     MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
     body.add("file", new FileSystemResource(file));
     // do the http post call
     HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-    RestTemplate restTemplate = new RestTemplate();
     return restTemplate.postForEntity(url, requestEntity, String.class);
   }
 
   /**
-   * Build http header with basic auth & file upload http content type
+   * Upload a maven artifact (jar or pom) into the kie-workbench unless the repository already contains the identical
+   * artifact. The <code>.sha1</code> checksum next to the target url is compared to the local file. The KIE workbench
+   * creates the checksums on its own and accepts POST uploads only, so the <code>.sha1</code> and <code>.md5</code>
+   * checksums are published next to the artifact only for repositories that accept PUT (if enabled).
    *
+   * @param file the artifact to upload
+   * @param url  the target url
+   * @return <code>true</code> if the artifact was uploaded, <code>false</code> if it was already present
+   * @throws IOException if the artifact could not be uploaded
+   */
+  public boolean uploadArtifact(File file, String url) throws IOException {
+    MessageDigest sha1 = DigestUtils.getSha1Digest();
+    MessageDigest md5 = DigestUtils.getMd5Digest();
+    try (InputStream is = new FileInputStream(file)) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        sha1.update(buffer, 0, read);
+        md5.update(buffer, 0, read);
+      }
+    }
+    String sha1Hex = Hex.encodeHexString(sha1.digest());
+    if (sha1Hex.equals(getRemoteChecksum(url + ".sha1"))) {
+      LOGGER.debug("Skipping upload of '{}', '{}' has the same checksum {}", file.getAbsolutePath(), url, sha1Hex);
+      return false;
+    }
+
+    // the workbench does not support partial (resumable) uploads, so a broken transfer gets repeated as a whole
+    ResponseEntity<String> response;
+    for (int attempt = 0; ; attempt++) {
+      try {
+        response = uploadFile(file, url);
+        break;
+      } catch (ResourceAccessException e) {
+        if (attempt >= retries) {
+          throw new IOException(String.format("Error while uploading '%s' to '%s'", file.getAbsolutePath(), url), e);
+        }
+        LOGGER.warn("Upload of '{}' failed ({}), retrying {}/{}", file.getName(), e.getMessage(), attempt + 1, retries);
+      }
+    }
+    if (!response.getStatusCode().is2xxSuccessful()) {
+      throw new IOException(String.format("Error while uploading '%s' to '%s'. Status: %s", file.getAbsolutePath(), url,
+          response.getStatusCode()));
+    }
+    if (checksums) {
+      putChecksum(url + ".sha1", sha1Hex);
+      putChecksum(url + ".md5", Hex.encodeHexString(md5.digest()));
+    }
+    return true;
+  }
+
+  /**
+   * Upload a maven artifact into the kie-workbench asynchronously, e.g. to upload a jar and its pom concurrently
+   *
+   * @param file the artifact to upload
+   * @param url  the target url
+   * @return the future of the upload, <code>true</code> if the artifact was uploaded, <code>false</code> if it was
+   * already present
+   * @see #uploadArtifact(File, String)
+   */
+  public CompletableFuture<Boolean> uploadArtifactAsync(File file, String url) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return uploadArtifact(file, url);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, executor);
+  }
+
+  /**
+   * Read a checksum from the kie-workbench
+   *
+   * @param url the url of the checksum file
+   * @return the checksum or <code>null</code> if not available
+   */
+  private String getRemoteChecksum(String url) {
+    try {
+      ResponseEntity<String> response = restTemplate
+          .exchange(url, HttpMethod.GET, new HttpEntity<>(buildAuthHeader(null)), String.class);
+      String body = response.getBody();
+      // checksum files may contain the file name after the checksum
+      return body == null || body.trim().isEmpty() ? null : body.trim().split("\\s+")[0].toLowerCase();
+    } catch (RestClientException e) {
+      LOGGER.debug("Checksum '{}' not available: {}", url, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Publish a checksum next to an uploaded artifact by PUT. Failures are not fatal, some repositories create the
+   * checksums on their own.
+   *
+   * @param url      the url of the checksum file
+   * @param checksum the checksum
+   */
+  private void putChecksum(String url, String checksum) {
+    try {
+      restTemplate.exchange(url, HttpMethod.PUT, new HttpEntity<>(checksum, buildAuthHeader(MediaType.TEXT_PLAIN)),
+          String.class);
+    } catch (RestClientException e) {
+      LOGGER.warn("Error while publishing checksum '{}': {}", url, e.getMessage());
+    }
+  }
+
+  /**
+   * Release the pooled connections
+   *
+   * @throws IOException on any I/O error
+   */
+  @PreDestroy
+  public void close() throws IOException {
+    executor.shutdownNow();
+    httpClient.close();
+  }
+
+  /**
+   * Build the shared http client
+   *
+   * @param connectTimeout the connect timeout in milliseconds
+   * @param readTimeout    the read (socket) timeout in milliseconds
+   * @param maxConnections the maximum number of pooled connections
+   * @param gzip           <code>true</code> if request bodies should be gzip compressed
+   * @return the http client
+   */
+  private CloseableHttpClient buildHttpClient(int connectTimeout, int readTimeout, int maxConnections, boolean gzip) {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+    HttpClientBuilder builder = HttpClientBuilder.create()
+        .setConnectionManager(connectionManager)
+        .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setConnectionRequestTimeout(connectTimeout)
+            .setSocketTimeout(readTimeout)
+            .build());
+    if (gzip) {
+      // must run before the content headers (length, encoding) get derived from the entity
+      builder.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+        if (request instanceof HttpEntityEnclosingRequest) {
+          HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+          if (entityRequest.getEntity() != null && entityRequest.getEntity().getContentEncoding() == null) {
+            entityRequest.setEntity(new GzipCompressingEntity(entityRequest.getEntity()));
+          }
+        }
+      });
+    }
+    return builder.build();
+  }
+
+  /**
+   * Build http header with basic auth & http content type
+   *
+   * @param contentType the content type or <code>null</code> if the request has no body
    * @return the basic authentication header
    */
-  private HttpHeaders buildAuthHeader() {
-    return new HttpHeaders() {{
-      String auth = workbenchUser + ":" + workbenchPassword;
-      byte[] encodedAuth = Base64.encodeBase64(auth.getBytes(Charset.forName("US-ASCII")));
-      String authHeader = "Basic " + new String(encodedAuth);
-      set("Authorization", authHeader);
-      setContentType(MediaType.MULTIPART_FORM_DATA);
-    }};
+  private HttpHeaders buildAuthHeader(MediaType contentType) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set("Authorization", authHeader);
+    if (contentType != null) {
+      headers.setContentType(contentType);
+    }
+    return headers;
   }
 
 }
@@ -21,15 +21,23 @@ import com.arvato.workflow.kie4developer.common.interfaces.IDeployableBPMNProces
 import com.arvato.workflow.kie4developer.common.interfaces.IDeployableDependency;
 import com.arvato.workflow.kie4developer.common.interfaces.IDeployableWorkItemHandler;
 import com.arvato.workflow.kie4developer.common.interfaces.IRelease;
+import com.arvato.workflow.kie4developer.common.model.AuditMode;
+import com.arvato.workflow.kie4developer.listener.AsyncAuditEventListener;
+import com.arvato.workflow.kie4developer.listener.AsyncAuditWriter;
+import com.arvato.workflow.kie4developer.marshalling.ContentStoreMarshallingStrategy;
+import com.arvato.workflow.kie4developer.marshalling.ExternalizedVariable;
+import com.arvato.workflow.kie4developer.marshalling.ExternalizedVariableListener;
+import com.arvato.workflow.kie4developer.marshalling.FileSystemContentStore;
+import com.arvato.workflow.kie4developer.marshalling.JsonMarshallingStrategy;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Modifier;
-import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
-import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -37,11 +45,22 @@ import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.stream.Collectors;
 import org.drools.compiler.kie.builder.impl.InternalKieModule;
 import org.jbpm.ruleflow.core.RuleFlowProcessFactory;
@@ -53,6 +72,7 @@ import org.kie.api.io.Resource;
 import org.kie.internal.io.ResourceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 /**
@@ -64,12 +84,42 @@ import org.springframework.stereotype.Component;
 public class KJarBuilder {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(KJarBuilder.class);
+  private static final long ENTRY_TIME = 946684800000L; // 2000-01-01T00:00:00Z
+  // the zip format stores the entry time as local date and time, so the time gets shifted by the time zone offset to
+  // store 2000-01-01 00:00 in every time zone
+  private static final long LOCAL_ENTRY_TIME = ENTRY_TIME - TimeZone.getDefault().getOffset(ENTRY_TIME);
   private IRelease release;
   private FileSystemUtils fileSystemUtils;
-
-  public KJarBuilder(IRelease release, FileSystemUtils fileSystemUtils) {
+  private KJarCache kJarCache;
+  private PersistenceSettings persistenceSettings;
+  private int parallelism;
+  private boolean zeroExtraction;
+  private int auditBatchSize;
+  private long auditFlushInterval;
+  private String serializationGroupId;
+  private String contentStoreDir;
+  private int contentStoreThreshold;
+
+  public KJarBuilder(IRelease release, FileSystemUtils fileSystemUtils, KJarCache kJarCache,
+      PersistenceSettings persistenceSettings,
+      @Value("${spring.application.kjar.parallelism}") int parallelism,
+      @Value("${spring.application.kjar.zeroextraction}") boolean zeroExtraction,
+      @Value("${spring.application.audit.async.batchsize}") int auditBatchSize,
+      @Value("${spring.application.audit.async.interval}") long auditFlushInterval,
+      @Value("${spring.application.groupid.serialization}") String serializationGroupId,
+      @Value("${spring.application.contentstore.dir}") String contentStoreDir,
+      @Value("${spring.application.contentstore.threshold}") int contentStoreThreshold) {
     this.release = release;
     this.fileSystemUtils = fileSystemUtils;
+    this.kJarCache = kJarCache;
+    this.persistenceSettings = persistenceSettings;
+    this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    this.zeroExtraction = zeroExtraction;
+    this.auditBatchSize = auditBatchSize;
+    this.auditFlushInterval = auditFlushInterval;
+    this.serializationGroupId = serializationGroupId;
+    this.contentStoreDir = contentStoreDir;
+    this.contentStoreThreshold = contentStoreThreshold;
   }
 
   /**
@@ -89,13 +139,146 @@ public class KJarBuilder {
       List<Class<? extends IDeployableBPMNProcess>> processesToMock,
       List<Class<? extends IDeployableWorkItemHandler>> deployableWorkitemhandlers,
       List<Class> deployableServiceClasses, Properties globals) throws Exception {
+    List<Resource> resources = buildResources(deployableDependencies, deployableProcesses, processesToMock,
+        deployableWorkitemhandlers, deployableServiceClasses, globals);
+    String pomXml = buildPomXml();
+
+    File tmpdir = fileSystemUtils.createTempDirectory(!LOGGER.isDebugEnabled()).toFile();
+    long timestamp = Instant.now().getEpochSecond();
+    String jarFilename = release.getArtifactId() + "-" + release.getVersion() + "-" + timestamp + ".jar";
+    File jarFile = new File(tmpdir, jarFilename);
+
+    // reuse the kjar of a previous build when all inputs are unchanged
+    String kjarCacheKey = kJarCache.isEnabled() ? kJarCache.computeKey(resources) : null;
+    File cachedJarFile = kjarCacheKey != null ? kJarCache.getKjar(kjarCacheKey) : null;
+    if (cachedJarFile != null) {
+      LOGGER.debug("Reusing cached kjar {}", cachedJarFile.getAbsolutePath());
+      Files.copy(cachedJarFile.toPath(), jarFile.toPath());
+    } else {
+      // write to kmodule
+      KieServices ks = KieServices.Factory.get();
+      InternalKieModule kieModule = compile(ks, ks.newKieFileSystem(), resources);
+
+      // build the kjar file that represents the kmodule
+      try {
+        writeKjar(kieModule, jarFile);
+      } catch (IOException e) {
+        throw new IOException("Kjar write error (jar)", e);
+      }
+      if (kjarCacheKey != null) {
+        kJarCache.putKjar(kjarCacheKey, jarFile);
+      }
+    }
+
+    // build the pom file that represents the kmodule
+    File pomFile;
+    try {
+      String filename = release.getArtifactId() + "-" + release.getVersion() + "-" + timestamp + ".pom";
+      pomFile = new File(tmpdir, filename);
+      OutputStream os = new FileOutputStream(pomFile);
+      os.write(pomXml.getBytes());
+      os.close();
+    } catch (IOException e) {
+      throw new IOException("Kjar write error (pom)", e);
+    }
+
+    LOGGER.info("Kjar created: {}", jarFile.getAbsolutePath());
+    Map files = new HashMap<>();
+    files.put("jar", jarFile);
+    files.put("pom", pomFile);
+    return files;
+  }
+
+  /**
+   * Build the kmodule in memory without writing a kjar file, e.g. to hand it over to the embedded KIE Server directly
+   *
+   * @param deployableDependencies     related dependencies
+   * @param globals                    the environment variables (globals) for the release
+   * @param deployableProcesses        related processes
+   * @param processesToMock            related processes to mock
+   * @param deployableWorkitemhandlers related workitemhandlers
+   * @param deployableServiceClasses   related service classes
+   * @return the kmodule with the release id of the release
+   * @throws Exception if compilation fails
+   */
+  public InternalKieModule buildKieModule(List<IDeployableDependency> deployableDependencies,
+      List<Class<? extends IDeployableBPMNProcess>> deployableProcesses,
+      List<Class<? extends IDeployableBPMNProcess>> processesToMock,
+      List<Class<? extends IDeployableWorkItemHandler>> deployableWorkitemhandlers,
+      List<Class> deployableServiceClasses, Properties globals) throws Exception {
+    List<Resource> resources = buildResources(deployableDependencies, deployableProcesses, processesToMock,
+        deployableWorkitemhandlers, deployableServiceClasses, globals);
     KieServices ks = KieServices.Factory.get();
+    org.kie.api.builder.ReleaseId releaseId = ks
+        .newReleaseId(release.getGroupId(), release.getArtifactId(), release.getVersion());
+
+    // reuse the kmodule of a previous build when all inputs are unchanged. Unlike the kjar file it contains the pom, so
+    // the release id is part of the key.
+    String kmoduleCacheKey = null;
+    if (kJarCache.isEnabled()) {
+      byte[] releaseIdBytes = releaseId.toExternalForm().getBytes(StandardCharsets.UTF_8);
+      List<Resource> keyResources = new ArrayList<>(resources);
+      keyResources.add(ks.getResources().newByteArrayResource(releaseIdBytes).setSourcePath("kmodule-release-id"));
+      kmoduleCacheKey = kJarCache.computeKey(keyResources);
+      File cachedJarFile = kJarCache.getKjar(kmoduleCacheKey);
+      if (cachedJarFile != null) {
+        LOGGER.debug("Reusing cached kmodule {}", cachedJarFile.getAbsolutePath());
+        // the repository reads the kmodule into memory and registers it, like a kmodule built from scratch gets
+        return (InternalKieModule) ks.getRepository()
+            .addKieModule(ks.getResources().newByteArrayResource(Files.readAllBytes(cachedJarFile.toPath())));
+      }
+    }
+
     KieFileSystem kfs = ks.newKieFileSystem();
+    // the kjar file gets its release id from the maven repository, the kmodule needs it from the pom
+    kfs.generateAndWritePomXML(releaseId);
+    InternalKieModule kieModule = compile(ks, kfs, resources);
+    if (kmoduleCacheKey != null) {
+      File jarFile = Files.createTempFile("kmodule", ".jar").toFile();
+      try {
+        writeKjar(kieModule, jarFile);
+        kJarCache.putKjar(kmoduleCacheKey, jarFile);
+      } finally {
+        Files.deleteIfExists(jarFile.toPath());
+      }
+    }
+    return kieModule;
+  }
 
-    Map<String, File> classFilesToDeploy = new HashMap<>(); // contains entries: [relative path in jar:file]
+  /**
+   * Build all resources of the kmodule
+   *
+   * @param deployableDependencies     related dependencies
+   * @param globals                    the environment variables (globals) for the release
+   * @param deployableProcesses        related processes
+   * @param processesToMock            related processes to mock
+   * @param deployableWorkitemhandlers related workitemhandlers
+   * @param deployableServiceClasses   related service classes
+   * @return the resources
+   * @throws Exception if a resource could not be build
+   */
+  private List<Resource> buildResources(List<IDeployableDependency> deployableDependencies,
+      List<Class<? extends IDeployableBPMNProcess>> deployableProcesses,
+      List<Class<? extends IDeployableBPMNProcess>> processesToMock,
+      List<Class<? extends IDeployableWorkItemHandler>> deployableWorkitemhandlers,
+      List<Class> deployableServiceClasses, Properties globals) throws Exception {
+    Map<String, byte[]> classFilesToDeploy = new HashMap<>(); // contains entries: [relative path in jar:content]
 
     // add classes-files
     addClassFileToDeployment(IDeployableWorkItemHandler.class, classFilesToDeploy);
+    if (release.getAuditMode() == AuditMode.ASYNC) {
+      addClassFileToDeployment(AsyncAuditEventListener.class, classFilesToDeploy);
+      addClassFileToDeployment(AsyncAuditWriter.class, classFilesToDeploy);
+    }
+    if (release.isJsonMarshalling()) {
+      addClassFileToDeployment(JsonMarshallingStrategy.class, classFilesToDeploy);
+    }
+    if (release.isExternalizedVariables()) {
+      addClassFileToDeployment(ContentStoreMarshallingStrategy.class, classFilesToDeploy);
+      addClassFileToDeployment(ExternalizedVariable.class, classFilesToDeploy);
+      addClassFileToDeployment(ExternalizedVariableListener.class, classFilesToDeploy);
+      addClassFileToDeployment(FileSystemContentStore.class, classFilesToDeploy);
+    }
     for (Class<? extends IDeployableWorkItemHandler> workitemhandlerClass : deployableWorkitemhandlers) {
       addClassFileToDeployment(workitemhandlerClass, classFilesToDeploy);
     }
@@ -113,7 +296,7 @@ public class KJarBuilder {
     String kmoduleInfo = buildKmoduleInfo();
     String kmoduleXml = buildKmoduleXml();
     String beansXml = buildBeansXml(deployableWorkitemhandlers);
-    String persistenceXml = buildPersistence();
+    String persistenceXml = buildPersistence(getEntityClassNames(classFilesToDeploy));
     String pomXml = buildPomXml();
     String pomProperties = buildPomProperties();
 
@@ -130,31 +313,35 @@ public class KJarBuilder {
         "META-INF/maven/" + release.getGroupId() + File.separator + release.getArtifactId() + "/pom.xml"));
     resources.add(ResourceFactory.newByteArrayResource(pomProperties.getBytes()).setSourcePath(
         "META-INF/maven/" + release.getGroupId() + File.separator + release.getArtifactId() + "/pom.properties"));
+    List<Callable<List<Resource>>> processBuilds = new ArrayList<>();
     for (Class<? extends IDeployableBPMNProcess> deployableProcess : deployableProcesses) {
       if (!deployableProcess.isInterface() && !Modifier.isAbstract(deployableProcess.getModifiers())) {
-        IDeployableBPMNProcess deployableBPMNProcess = deployableProcess.newInstance();
-        resources.addAll(ProcessBuilder.build(deployableBPMNProcess)); // .bpmn + .svg
+        processBuilds.add(() -> buildProcessResources(deployableProcess, false)); // .bpmn + .svg
       }
     }
     for (Class<? extends IDeployableBPMNProcess> deployableProcessToMock : processesToMock) {
       if (!deployableProcessToMock.isInterface() && !Modifier.isAbstract(deployableProcessToMock.getModifiers())) {
-        IDeployableBPMNProcess deployableBPMNProcess = mockProcess(deployableProcessToMock);
-        resources.addAll(ProcessBuilder.build(deployableBPMNProcess)); // .bpmn + .svg
+        processBuilds.add(() -> buildProcessResources(deployableProcessToMock, true)); // .bpmn + .svg
       }
     }
-    for (Entry<String, File> deployableWorkitemhandlerFileSet : classFilesToDeploy.entrySet()) {
-      try {
-        String filepathForKJar = deployableWorkitemhandlerFileSet.getKey();
-        Path classFileForKJar = extractFileWhenIncludedInJar(deployableWorkitemhandlerFileSet.getValue().toPath());
-        resources.add(
-            ResourceFactory.newByteArrayResource(Files.readAllBytes(classFileForKJar)).setSourcePath(filepathForKJar));
-      } catch (IOException e) {
-        LOGGER.error("Error on reading workitemhandler class file {}",
-            deployableWorkitemhandlerFileSet.getValue().getAbsolutePath(), e);
-      }
+    resources.addAll(buildInParallel(processBuilds));
+    for (Entry<String, byte[]> classFileToDeploy : classFilesToDeploy.entrySet()) {
+      resources.add(
+          ResourceFactory.newByteArrayResource(classFileToDeploy.getValue()).setSourcePath(classFileToDeploy.getKey()));
     }
+    return resources;
+  }
 
-    // write to kmodule
+  /**
+   * Compile the resources into a kmodule
+   *
+   * @param ks        the kie services
+   * @param kfs       the file system to write the resources to
+   * @param resources the resources
+   * @return the kmodule
+   * @throws Exception if compilation fails
+   */
+  private InternalKieModule compile(KieServices ks, KieFileSystem kfs, List<Resource> resources) throws Exception {
     for (Resource resource : resources) {
       kfs.write(resource);
     }
@@ -167,50 +354,124 @@ public class KJarBuilder {
       throw new Exception(
           String.format("Process compilation error: %s", builder.getResults().getMessages().toString()));
     }
+    return (InternalKieModule) builder.getKieModule();
+  }
 
-    File tmpdir = fileSystemUtils.createTempDirectory(!LOGGER.isDebugEnabled()).toFile();
-    long timestamp = Instant.now().getEpochSecond();
-
-    // build the kjar file that represents the kmodule
-    File jarFile;
-    try {
-      String filename = release.getArtifactId() + "-" + release.getVersion() + "-" + timestamp + ".jar";
-      jarFile = new File(tmpdir, filename);
-      OutputStream os = new FileOutputStream(jarFile);
-      InternalKieModule kieModule = (InternalKieModule) builder.getKieModule();
-      os.write(kieModule.getBytes());
-      os.close();
-    } catch (IOException e) {
-      throw new IOException("Kjar write error (jar)", e);
+  /**
+   * Write the kmodule into a jar file entry by entry, so the archive is never held in memory as a whole. The generated
+   * default pom and the src folder are skipped.
+   *
+   * @param kieModule the kmodule to write
+   * @param jarFile   the target jar file
+   * @throws IOException if an I/O error occurs
+   */
+  private void writeKjar(InternalKieModule kieModule, File jarFile) throws IOException {
+    List<String> fileNames = new ArrayList<>(kieModule.getFileNames());
+    Collections.sort(fileNames);
+    Set<String> directories = new HashSet<>();
+    try (JarOutputStream jos = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)))) {
+      for (String fileName : fileNames) {
+        if (fileName.startsWith("META-INF/maven/org.default/") || fileName.startsWith("src/")) {
+          continue;
+        }
+        // add the parent directory entries first
+        for (int i = fileName.indexOf('/'); i > 0; i = fileName.indexOf('/', i + 1)) {
+          String directory = fileName.substring(0, i + 1);
+          if (directories.add(directory)) {
+            jos.putNextEntry(newJarEntry(directory));
+            jos.closeEntry();
+          }
+        }
+        jos.putNextEntry(newJarEntry(fileName));
+        jos.write(kieModule.getBytes(fileName));
+        jos.closeEntry();
+      }
     }
+  }
 
-    // build the pom file that represents the kmodule
-    File pomFile;
+  /**
+   * Create a jar entry with a fixed timestamp, so the same content always results in the same jar (and checksum), also
+   * when built in another time zone
+   *
+   * @param name the entry name
+   * @return the jar entry
+   */
+  private JarEntry newJarEntry(String name) {
+    JarEntry entry = new JarEntry(name);
+    entry.setTime(LOCAL_ENTRY_TIME);
+    return entry;
+  }
+
+  /**
+   * Run the resource builds concurrently. The resulting resources are returned in the order of the given builds, so
+   * the content of the kmodule does not depend on the thread scheduling.
+   *
+   * @param builds the resource builds to run
+   * @return the resources of all builds
+   * @throws Exception if any build fails
+   */
+  private List<Resource> buildInParallel(List<Callable<List<Resource>>> builds) throws Exception {
+    List<Resource> resources = new ArrayList<>();
+    if (builds.isEmpty()) {
+      return resources;
+    }
+    // worker threads have to use the same class loader as the caller e.g. when running as fat-jar
+    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, builds.size()));
     try {
-      String filename = release.getArtifactId() + "-" + release.getVersion() + "-" + timestamp + ".pom";
-      pomFile = new File(tmpdir, filename);
-      OutputStream os = new FileOutputStream(pomFile);
-      os.write(pomXml.getBytes());
-      os.close();
-    } catch (IOException e) {
-      throw new IOException("Kjar write error (pom)", e);
+      List<Future<List<Resource>>> futures = new ArrayList<>();
+      for (Callable<List<Resource>> build : builds) {
+        futures.add(pool.submit(() -> {
+          ClassLoader workerClassLoader = Thread.currentThread().getContextClassLoader();
+          Thread.currentThread().setContextClassLoader(contextClassLoader);
+          try {
+            return build.call();
+          } finally {
+            Thread.currentThread().setContextClassLoader(workerClassLoader);
+          }
+        }));
+      }
+      for (Future<List<Resource>> future : futures) {
+        try {
+          resources.addAll(future.get());
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
     }
+    return resources;
+  }
 
-    // remove the generated default pom & src folder - is there any way to not generated it first?
-    Map<String, String> zip_properties = new HashMap<>();
-    zip_properties.put("create", "false");
-    try (FileSystem zipfs = FileSystems.newFileSystem(URI.create("jar:" + jarFile.toURI()), zip_properties)) {
-      fileSystemUtils.delete(zipfs.getPath("META-INF/maven/org.default"));
-      fileSystemUtils.delete(zipfs.getPath("src"));
-    } catch (IOException e) {
-      throw new IOException("Kjar write error", e);
+  /**
+   * Build the resources (.bpmn + .svg) of a process. When the incremental build mode is active the resources of a
+   * process built via fluent API are reused as long as the bytecode of the process class is unchanged.
+   *
+   * @param processClass the process to build
+   * @param mock         <code>true</code> if the process should be deployed as mock
+   * @return the process resources
+   * @throws Exception if compilation fails or I/O error occurs
+   */
+  private List<Resource> buildProcessResources(Class<? extends IDeployableBPMNProcess> processClass, boolean mock)
+      throws Exception {
+    String cacheKey = null;
+    if (kJarCache.isEnabled()) {
+      cacheKey = kJarCache.computeKey(processClass, mock ? "mock" : "process");
+      List<Resource> cachedResources = kJarCache.getResources(cacheKey);
+      if (cachedResources != null) {
+        LOGGER.debug("Reusing cached resources for process {}", processClass.getName());
+        return cachedResources;
+      }
     }
-
-    LOGGER.info("Kjar created: {}", jarFile.getAbsolutePath());
-    Map files = new HashMap<>();
-    files.put("jar", jarFile);
-    files.put("pom", pomFile);
-    return files;
+    IDeployableBPMNProcess deployableBPMNProcess = mock ? mockProcess(processClass) : processClass.newInstance();
+    Resource bpmnModel = deployableBPMNProcess.buildBPMNModel();
+    List<Resource> processResources = ProcessBuilder.build(deployableBPMNProcess, bpmnModel);
+    // processes defined via .bpmn file can change without a bytecode change, so only fluent API processes are cached
+    if (cacheKey != null && bpmnModel == null) {
+      kJarCache.putResources(cacheKey, processResources);
+    }
+    return processResources;
   }
 
   /**
@@ -260,8 +521,14 @@ public class KJarBuilder {
    * @param dependency         the dependency definition
    * @param classFilesToDeploy the list of class files to extend
    */
-  private void addClassFilesToDeployment(IDeployableDependency dependency, Map<String, File> classFilesToDeploy)
+  private void addClassFilesToDeployment(IDeployableDependency dependency, Map<String, byte[]> classFilesToDeploy)
       throws IOException {
+    if (zeroExtraction) {
+      // read the class-files directly from the (nested) jar
+      fileSystemUtils.readArchiveEntries(fileSystemUtils.getMavenDependencyArchivePath(dependency),
+          name -> name.endsWith(".class"), classFilesToDeploy::put);
+      return;
+    }
     File unzippedJar = fileSystemUtils.getUnzippedMavenDependencyJarFile(dependency);
 
     List<Path> allClassFilesFromJar = Files.walk(unzippedJar.toPath())
@@ -270,21 +537,21 @@ public class KJarBuilder {
         .collect(Collectors.toList());
 
     for (Path classFile : allClassFilesFromJar) {
-      addClassFileToDeployment(classFile, classFilesToDeploy);
+      addClassFileToDeployment(unzippedJar.toPath(), classFile, classFilesToDeploy);
     }
   }
 
   /**
    * Add the class-file to the list of class files
    *
+   * @param rootPath           the root directory of the extracted jar
    * @param classfilePath      the path to the class-file
    * @param classFilesToDeploy the list of class files to extend
    */
-  private void addClassFileToDeployment(Path classfilePath, Map<String, File> classFilesToDeploy) {
-    Path filepath = Paths.get(System.getProperty("java.io.tmpdir"))
-        .relativize(classfilePath); // remove the tmp dir path
-    filepath = filepath.subpath(1, filepath.getNameCount()); // remove the generated tmp-folder name
-    classFilesToDeploy.put(filepath.toString(), classfilePath.toFile());
+  private void addClassFileToDeployment(Path rootPath, Path classfilePath, Map<String, byte[]> classFilesToDeploy)
+      throws IOException {
+    Path filepath = rootPath.relativize(classfilePath); // remove the extraction dir path
+    classFilesToDeploy.put(filepath.toString(), Files.readAllBytes(classfilePath));
   }
 
   /**
@@ -312,13 +579,24 @@ public class KJarBuilder {
    * @param clazz              the class
    * @param classFilesToDeploy the list of class files to extend
    */
-  private void addClassFileToDeployment(Class clazz, Map<String, File> classFilesToDeploy) throws IOException {
+  private void addClassFileToDeployment(Class clazz, Map<String, byte[]> classFilesToDeploy) throws IOException {
     String compiledClassesDir = clazz.getProtectionDomain().getCodeSource().getLocation().getFile();
     compiledClassesDir = compiledClassesDir.startsWith("file:") ? compiledClassesDir.substring(5) : compiledClassesDir;
     compiledClassesDir =
         (compiledClassesDir.startsWith("/") && compiledClassesDir.contains(":")) ? compiledClassesDir.substring(1)
             : compiledClassesDir;
     compiledClassesDir = URLDecoder.decode(compiledClassesDir, "UTF-8");
+    if (zeroExtraction && compiledClassesDir.contains(".jar")) {
+      // read the class-files directly from the (nested) jar
+      String archivePath = compiledClassesDir.endsWith("!/")
+          ? compiledClassesDir.substring(0, compiledClassesDir.length() - 2) : compiledClassesDir;
+      String packagePath = clazz.getPackage().getName().replace(".", "/") + "/";
+      String classFilePrefix = packagePath + clazz.getSimpleName();
+      fileSystemUtils.readArchiveEntries(archivePath,
+          name -> name.startsWith(classFilePrefix) && name.endsWith(".class")
+              && name.indexOf('/', packagePath.length()) < 0, classFilesToDeploy::put);
+      return;
+    }
     Path directoryStreamPath = Paths
         .get(compiledClassesDir + clazz.getPackage().getName().replace(".", File.separator));
     directoryStreamPath = extractFileWhenIncludedInJar(directoryStreamPath);
@@ -328,7 +606,7 @@ public class KJarBuilder {
     try (DirectoryStream<Path> matches = Files.newDirectoryStream(directoryStreamPath, pathMatcher::matches)) {
       for (Path classFile : matches) {
         Path relativeFilepathOfClass = extractRelativePathForClass(clazz, classFile);
-        classFilesToDeploy.put(relativeFilepathOfClass.toString(), classFile.toFile());
+        classFilesToDeploy.put(relativeFilepathOfClass.toString(), Files.readAllBytes(classFile));
       }
     }
   }
@@ -365,27 +643,70 @@ public class KJarBuilder {
   }
 
   /**
-   * Build the persistence.xml for the provided release
+   * Build the persistence.xml for the provided release. The persistence unit is only used by the JPA entities of the
+   * release, the engine (process instances, tasks, audit logs) uses the <code>org.jbpm.domain</code> persistence unit of
+   * the KIE server which has to be configured on the server.
    *
+   * @param entityClassNames the names of the JPA entity, embeddable and mapped superclass classes of the release
    * @return the persistence.xml file content
    */
-  private String buildPersistence() {
-    return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+  private String buildPersistence(Set<String> entityClassNames) {
+    String persistenceXml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
         + "<persistence xmlns=\"http://java.sun.com/xml/ns/persistence\" xmlns:orm=\"http://java.sun.com/xml/ns/persistence/orm\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" version=\"2.0\" xsi:schemaLocation=\"http://java.sun.com/xml/ns/persistence http://java.sun.com/xml/ns/persistence/persistence_2_0.xsd http://java.sun.com/xml/ns/persistence/orm http://java.sun.com/xml/ns/persistence/orm_2_0.xsd\">\n"
         + "    <persistence-unit name=\"" + release.getDeploymentId() + "\" transaction-type=\"JTA\">\n"
         + "        <provider>org.hibernate.jpa.HibernatePersistenceProvider</provider>\n"
-        + "        <jta-data-source>java:jboss/datasources/ExampleDS</jta-data-source>\n"
-        + "        <exclude-unlisted-classes>true</exclude-unlisted-classes>\n"
-        + "        <properties>\n"
-        + "            <property name=\"hibernate.dialect\" value=\"org.hibernate.dialect.H2Dialect\"/>\n"
-        + "            <property name=\"hibernate.max_fetch_depth\" value=\"3\"/>\n"
-        + "            <property name=\"hibernate.hbm2ddl.auto\" value=\"update\"/>\n"
-        + "            <property name=\"hibernate.show_sql\" value=\"false\"/>\n"
-        + "            <property name=\"hibernate.id.new_generator_mappings\" value=\"false\"/>\n"
-        + "            <property name=\"hibernate.transaction.jta.platform\" value=\"org.hibernate.service.jta.platform.internal.JBossAppServerJtaPlatform\"/>\n"
-        + "        </properties>\n"
+        + "        <jta-data-source>" + escapeXml(persistenceSettings.getDataSource()) + "</jta-data-source>\n";
+    for (String entityClassName : entityClassNames) {
+      persistenceXml += "        <class>" + entityClassName + "</class>\n";
+    }
+    persistenceXml += "        <exclude-unlisted-classes>true</exclude-unlisted-classes>\n";
+    if (persistenceSettings.isSecondLevelCache()) {
+      persistenceXml += "        <shared-cache-mode>ENABLE_SELECTIVE</shared-cache-mode>\n";
+    }
+    persistenceXml += "        <properties>\n";
+    for (Entry<String, String> property : persistenceSettings.getProperties().entrySet()) {
+      persistenceXml += "            <property name=\"" + escapeXml(property.getKey()) + "\" value=\""
+          + escapeXml(property.getValue()) + "\"/>\n";
+    }
+    persistenceXml += "        </properties>\n"
         + "    </persistence-unit>\n"
         + "</persistence>\n";
+    return persistenceXml;
+  }
+
+  /**
+   * Get the JPA managed classes of the release, i.e. the deployed classes annotated with <code>@Entity</code>,
+   * <code>@Embeddable</code> or <code>@MappedSuperclass</code>. The class files are checked for the annotation
+   * descriptors, so the classes don't have to be loaded.
+   *
+   * @param classFilesToDeploy the class files of the kjar (relative path in jar:content)
+   * @return the class names in alphabetical order
+   */
+  private static Set<String> getEntityClassNames(Map<String, byte[]> classFilesToDeploy) {
+    Set<String> entityClassNames = new TreeSet<>();
+    for (Entry<String, byte[]> classFile : classFilesToDeploy.entrySet()) {
+      if (!classFile.getKey().endsWith(".class")) {
+        continue;
+      }
+      String content = new String(classFile.getValue(), StandardCharsets.ISO_8859_1);
+      if (content.contains("Ljavax/persistence/Entity;") || content.contains("Ljavax/persistence/Embeddable;")
+          || content.contains("Ljavax/persistence/MappedSuperclass;")) {
+        String path = classFile.getKey().replace('\\', '/');
+        entityClassNames.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+      }
+    }
+    return entityClassNames;
+  }
+
+  /**
+   * Escape a value for XML text and attributes
+   *
+   * @param value the value
+   * @return the escaped value
+   */
+  private static String escapeXml(String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+        .replace("'", "&apos;");
   }
 
   /**
@@ -427,40 +748,93 @@ public class KJarBuilder {
         + "<deployment-descriptor xsi:schemaLocation=\"http://www.jboss.org/jbpm deployment-descriptor.xsd\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n"
         + "    <persistence-unit>org.jbpm.domain</persistence-unit>\n"
         + "    <audit-persistence-unit>org.jbpm.domain</audit-persistence-unit>\n"
-        + "    <audit-mode>JPA</audit-mode>\n"
+        + "    <audit-mode>" + (release.getAuditMode() == AuditMode.JPA ? "JPA" : "NONE") + "</audit-mode>\n"
         + "    <persistence-mode>JPA</persistence-mode>\n"
-        + "    <runtime-strategy>PER_PROCESS_INSTANCE</runtime-strategy>\n"
-        + "    <marshalling-strategies/>\n";
-    if (includeBICCWListeners) {
-      deplomentDescriptorXml += "    <event-listeners>\n";
-      if (includeProcessinstancelistener) {
-        deplomentDescriptorXml += "     <event-listener>\n"
-            + "            <resolver>reflection</resolver>\n"
-            + "            <identifier>com.arvato.bicce.listener.ImprovedBicceProcessInstanceListener</identifier>\n"
-            + "            <parameters/>\n"
-            + "     </event-listener>\n";
-      }
-      deplomentDescriptorXml += "    </event-listeners>\n"
-          + "    <task-event-listeners>\n";
-      if (includeTaskemaileventlistener) {
-        deplomentDescriptorXml += "        <task-event-listener>\n"
-            + "            <resolver>reflection</resolver>\n"
-            + "            <identifier>com.arvato.bicce.email.listener.BicceTaskEmailEventListener</identifier>\n"
-            + "            <parameters/>\n"
-            + "        </task-event-listener>\n";
-      }
-      if (includeTaskeventListener) {
-        deplomentDescriptorXml += "        <task-event-listener>\n"
-            + "            <resolver>reflection</resolver>\n"
-            + "            <identifier>com.arvato.bicce.listener.ImprovedBicceTaskEventListener</identifier>\n"
-            + "            <parameters/>\n"
-            + "        </task-event-listener>\n";
+        + "    <runtime-strategy>" + release.getRuntimeStrategy().name() + "</runtime-strategy>\n";
+    String marshallingStrategiesXml = "";
+    String contentStoreArguments = null;
+    if (release.isExternalizedVariables()) {
+      // the directory is used by the KIE server, there is no default as the client can't know a safe location there
+      if (contentStoreDir == null || contentStoreDir.trim().isEmpty()) {
+        throw new IllegalStateException(
+            "Content store enabled without directory, set spring.application.contentstore.dir");
       }
-      deplomentDescriptorXml += "    </task-event-listeners>\n";
-    } else {
-      deplomentDescriptorXml += "    <event-listeners/>\n"
-          + "    <task-event-listeners/>\n";
+      contentStoreArguments = "\"" + contentStoreDir.trim().replace('\\', '/') + "\", " + contentStoreThreshold;
+      // has to be the first strategy, the externalized variables are within the serialization package as well
+      marshallingStrategiesXml += "        <marshalling-strategy>\n"
+          + "            <resolver>mvel</resolver>\n"
+          + "            <identifier>new " + ContentStoreMarshallingStrategy.class.getName() + "("
+          + contentStoreArguments + ")</identifier>\n"
+          + "            <parameters/>\n"
+          + "        </marshalling-strategy>\n";
+    }
+    if (release.isJsonMarshalling()) {
+      marshallingStrategiesXml += "        <marshalling-strategy>\n"
+          + "            <resolver>mvel</resolver>\n"
+          + "            <identifier>new " + JsonMarshallingStrategy.class.getName() + "(\"" + serializationGroupId
+          + "\")</identifier>\n"
+          + "            <parameters/>\n"
+          + "        </marshalling-strategy>\n";
+    }
+    deplomentDescriptorXml += marshallingStrategiesXml.isEmpty() ? "    <marshalling-strategies/>\n"
+        : "    <marshalling-strategies>\n" + marshallingStrategiesXml + "    </marshalling-strategies>\n";
+    String eventListenersXml = "";
+    if (includeBICCWListeners && includeProcessinstancelistener) {
+      eventListenersXml += "     <event-listener>\n"
+          + "            <resolver>reflection</resolver>\n"
+          + "            <identifier>com.arvato.bicce.listener.ImprovedBicceProcessInstanceListener</identifier>\n"
+          + "            <parameters/>\n"
+          + "     </event-listener>\n";
+    }
+    if (release.getAuditMode() == AuditMode.ASYNC) {
+      eventListenersXml += "     <event-listener>\n"
+          + "            <resolver>mvel</resolver>\n"
+          + "            <identifier>new " + AsyncAuditEventListener.class.getName() + "(ksession, runtimeManager, "
+          + auditBatchSize + ", " + auditFlushInterval + "L)</identifier>\n"
+          + "            <parameters/>\n"
+          + "     </event-listener>\n";
+    }
+    if (contentStoreArguments != null) {
+      eventListenersXml += "     <event-listener>\n"
+          + "            <resolver>mvel</resolver>\n"
+          + "            <identifier>new " + ExternalizedVariableListener.class.getName() + "(ksession, "
+          + contentStoreArguments + ")</identifier>\n"
+          + "            <parameters/>\n"
+          + "     </event-listener>\n";
+    }
+    deplomentDescriptorXml += eventListenersXml.isEmpty() ? "    <event-listeners/>\n"
+        : "    <event-listeners>\n" + eventListenersXml + "    </event-listeners>\n";
+    String taskEventListenersXml = "";
+    if (release.getAuditMode() == AuditMode.ASYNC) {
+      // the audit mode NONE drops the task audit (task events, audit tasks and BAM task summaries), the task audit logs
+      // are written within the task transaction
+      taskEventListenersXml += "        <task-event-listener>\n"
+          + "            <resolver>mvel</resolver>\n"
+          + "            <identifier>new org.jbpm.services.task.audit.JPATaskLifeCycleEventListener(true)</identifier>\n"
+          + "            <parameters/>\n"
+          + "        </task-event-listener>\n"
+          + "        <task-event-listener>\n"
+          + "            <resolver>mvel</resolver>\n"
+          + "            <identifier>new org.jbpm.services.task.lifecycle.listeners.BAMTaskEventListener(true)</identifier>\n"
+          + "            <parameters/>\n"
+          + "        </task-event-listener>\n";
+    }
+    if (includeBICCWListeners && includeTaskemaileventlistener) {
+      taskEventListenersXml += "        <task-event-listener>\n"
+          + "            <resolver>reflection</resolver>\n"
+          + "            <identifier>com.arvato.bicce.email.listener.BicceTaskEmailEventListener</identifier>\n"
+          + "            <parameters/>\n"
+          + "        </task-event-listener>\n";
+    }
+    if (includeBICCWListeners && includeTaskeventListener) {
+      taskEventListenersXml += "        <task-event-listener>\n"
+          + "            <resolver>reflection</resolver>\n"
+          + "            <identifier>com.arvato.bicce.listener.ImprovedBicceTaskEventListener</identifier>\n"
+          + "            <parameters/>\n"
+          + "        </task-event-listener>\n";
     }
+    deplomentDescriptorXml += taskEventListenersXml.isEmpty() ? "    <task-event-listeners/>\n"
+        : "    <task-event-listeners>\n" + taskEventListenersXml + "    </task-event-listeners>\n";
     deplomentDescriptorXml += "    <globals>\n";
     for (String globalName : globals.stringPropertyNames()) {
       deplomentDescriptorXml +="        <global>\n"
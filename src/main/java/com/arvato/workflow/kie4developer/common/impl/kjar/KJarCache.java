@@ -0,0 +1,496 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.kjar;
+
+import com.arvato.workflow.kie4developer.common.impl.ProcessBuilder;
+import com.arvato.workflow.kie4developer.common.impl.ProcessImageBuilder;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.codec.binary.Hex;
+import org.kie.api.io.Resource;
+import org.kie.internal.io.ResourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Content-addressed on-disk cache for incremental Kjar builds. Generated process resources are stored by the hash of
+ * the process bytecode (including the application classes it references), complete kjars are stored by the hash of all
+ * resources they are built from. The cache directory survives JVM restarts, the least recently used entries are evicted
+ * when it exceeds its disk budget.
+ * <p>
+ * Reuse is per process for the generated resources (bpmn, svg) only: the compiled KieModule contains one KieBase of all
+ * processes, so it is reused if all resources are unchanged and otherwise built completely.
+ *
+ * @author TRIBE01
+ */
+@Component
+public class KJarCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KJarCache.class);
+  private static final String INDEX_FILE = "index.properties";
+  private boolean enabled;
+  private Path cacheDir;
+  private long maxBytes;
+  private byte[] generatorFingerprint;
+
+  public KJarCache(@Value("${spring.application.kjar.cache.enabled}") boolean enabled,
+      @Value("${spring.application.kjar.cache.dir}") String cacheDir,
+      @Value("${spring.application.kjar.cache.maxsize}") long maxSize) {
+    this.enabled = enabled;
+    this.cacheDir = Paths.get(cacheDir);
+    this.maxBytes = maxSize * 1024 * 1024;
+  }
+
+  /**
+   * Check if the incremental build mode is active
+   *
+   * @return <code>true</code> if the cache should be used, otherwise <code>false</code>
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Compute the cache key for a class. The key covers the bytecode of the class, its nested classes, its superclasses
+   * and interfaces, the application classes it references (transitively, the classes of the same jar or directory) as
+   * well as the bytecode of the process generators, so that a changed generator, base class or helper class
+   * invalidates the entries. Classes loaded by name at runtime (reflection) are not covered.
+   *
+   * @param clazz     the class to compute the key for
+   * @param qualifier qualifier to distinguish different outputs of the same class e.g. process or mock
+   * @return the cache key
+   * @throws IOException if the bytecode could not be read
+   */
+  public String computeKey(Class<?> clazz, String qualifier) throws IOException {
+    MessageDigest digest = newDigest();
+    digest.update(getGeneratorFingerprint());
+    digest.update(qualifier.getBytes(StandardCharsets.UTF_8));
+    digest.update(clazz.getName().getBytes(StandardCharsets.UTF_8));
+    Set<Class<?>> visited = new HashSet<>();
+    updateWithHierarchy(digest, clazz, visited);
+    updateWithReferences(digest, clazz, visited);
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  /**
+   * Compute the cache key for a list of resources based on their paths and content
+   *
+   * @param resources the resources to compute the key for
+   * @return the cache key
+   * @throws IOException if a resource could not be read
+   */
+  public String computeKey(List<Resource> resources) throws IOException {
+    List<Resource> sortedResources = new ArrayList<>(resources);
+    sortedResources.sort(Comparator.comparing(Resource::getSourcePath));
+    MessageDigest digest = newDigest();
+    for (Resource resource : sortedResources) {
+      digest.update(resource.getSourcePath().getBytes(StandardCharsets.UTF_8));
+      try (InputStream is = resource.getInputStream()) {
+        digest.update(StreamUtils.copyToByteArray(is));
+      }
+    }
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  /**
+   * Get previously generated resources
+   *
+   * @param key the cache key
+   * @return the cached resources or <code>null</code> if nothing is cached for the key
+   */
+  public List<Resource> getResources(String key) {
+    Path entryDir = cacheDir.resolve("resources").resolve(key);
+    Path indexFile = entryDir.resolve(INDEX_FILE);
+    if (!Files.exists(indexFile)) {
+      return null;
+    }
+    touch(indexFile);
+    try (InputStream is = Files.newInputStream(indexFile)) {
+      Properties index = new Properties();
+      index.load(is);
+      List<Resource> resources = new ArrayList<>();
+      for (int i = 0; index.containsKey(String.valueOf(i)); i++) {
+        byte[] content = Files.readAllBytes(entryDir.resolve(String.valueOf(i)));
+        resources.add(ResourceFactory.newByteArrayResource(content).setSourcePath(index.getProperty(String.valueOf(i))));
+      }
+      return resources;
+    } catch (IOException e) {
+      LOGGER.warn("Error while reading cached resources {}", entryDir, e);
+      return null;
+    }
+  }
+
+  /**
+   * Store generated resources
+   *
+   * @param key       the cache key
+   * @param resources the resources to store
+   */
+  public void putResources(String key, List<Resource> resources) {
+    Path entryDir = cacheDir.resolve("resources").resolve(key);
+    try {
+      Files.createDirectories(entryDir);
+      Properties index = new Properties();
+      for (int i = 0; i < resources.size(); i++) {
+        Resource resource = resources.get(i);
+        try (InputStream is = resource.getInputStream()) {
+          Files.write(entryDir.resolve(String.valueOf(i)), StreamUtils.copyToByteArray(is));
+        }
+        index.setProperty(String.valueOf(i), resource.getSourcePath());
+      }
+      // the index is written last and marks the entry as complete
+      Path tmpIndexFile = entryDir.resolve(INDEX_FILE + "." + UUID.randomUUID());
+      try (OutputStream os = Files.newOutputStream(tmpIndexFile)) {
+        index.store(os, null);
+      }
+      Files.move(tmpIndexFile, entryDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOGGER.warn("Error while caching resources {}", entryDir, e);
+    }
+    evict();
+  }
+
+  /**
+   * Get a previously built kjar
+   *
+   * @param key the cache key
+   * @return the cached kjar file or <code>null</code> if nothing is cached for the key
+   */
+  public File getKjar(String key) {
+    File jarFile = cacheDir.resolve("kjars").resolve(key + ".jar").toFile();
+    if (!jarFile.exists()) {
+      return null;
+    }
+    touch(jarFile.toPath());
+    return jarFile;
+  }
+
+  /**
+   * Store a built kjar
+   *
+   * @param key     the cache key
+   * @param jarFile the kjar file to store
+   */
+  public void putKjar(String key, File jarFile) {
+    Path kjarDir = cacheDir.resolve("kjars");
+    try {
+      Files.createDirectories(kjarDir);
+      Path tmpFile = kjarDir.resolve(key + ".jar." + UUID.randomUUID());
+      Files.copy(jarFile.toPath(), tmpFile);
+      Files.move(tmpFile, kjarDir.resolve(key + ".jar"), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOGGER.warn("Error while caching kjar {}", jarFile, e);
+    }
+    evict();
+  }
+
+  /**
+   * Mark a cache entry as recently used
+   *
+   * @param file the index file of the resources or the kjar file
+   */
+  private void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOGGER.debug("Error while marking cache entry {} as used", file, e);
+    }
+  }
+
+  /**
+   * Remove the least recently used entries until the cache fits into its disk budget. An entry is used last when its
+   * index file (resources) or kjar file was written or read.
+   */
+  private synchronized void evict() {
+    try {
+      Map<Path, Long> sizes = new HashMap<>(); // entry marker (index or kjar file) -> size of the entry
+      Path resourcesDir = cacheDir.resolve("resources");
+      if (Files.isDirectory(resourcesDir)) {
+        try (Stream<Path> entryDirs = Files.list(resourcesDir)) {
+          for (Path entryDir : entryDirs.collect(Collectors.toList())) {
+            if (Files.exists(entryDir.resolve(INDEX_FILE))) {
+              sizes.put(entryDir.resolve(INDEX_FILE), size(entryDir));
+            }
+          }
+        }
+      }
+      Path kjarDir = cacheDir.resolve("kjars");
+      if (Files.isDirectory(kjarDir)) {
+        try (Stream<Path> jarFiles = Files.list(kjarDir)) {
+          for (Path jarFile : jarFiles.filter(file -> file.toString().endsWith(".jar")).collect(Collectors.toList())) {
+            sizes.put(jarFile, Files.size(jarFile));
+          }
+        }
+      }
+      long totalBytes = sizes.values().stream().mapToLong(Long::longValue).sum();
+      List<Path> entries = new ArrayList<>(sizes.keySet());
+      entries.sort(Comparator.comparingLong(entry -> entry.toFile().lastModified()));
+      for (Path entry : entries) {
+        if (totalBytes <= maxBytes) {
+          break;
+        }
+        LOGGER.debug("Evicting cache entry {}", entry);
+        if (entry.getFileName().toString().equals(INDEX_FILE)) {
+          // the index goes first, so the entry is incomplete instead of partially deleted
+          Files.delete(entry);
+          delete(entry.getParent());
+        } else {
+          Files.delete(entry);
+        }
+        totalBytes -= sizes.get(entry);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Error while evicting cache entries from {}", cacheDir, e);
+    }
+  }
+
+  /**
+   * Get the size of the files of a directory
+   *
+   * @param dir the directory
+   * @return the size in bytes
+   * @throws IOException if the directory could not be read
+   */
+  private static long size(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.mapToLong(file -> file.toFile().length()).sum();
+    }
+  }
+
+  /**
+   * Delete a directory with its files
+   *
+   * @param dir the directory
+   * @throws IOException if a file could not be deleted
+   */
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(dir);
+  }
+
+  /**
+   * Get the fingerprint of the classes that generate the process resources
+   *
+   * @return the fingerprint
+   * @throws IOException if the bytecode could not be read
+   */
+  private synchronized byte[] getGeneratorFingerprint() throws IOException {
+    if (generatorFingerprint == null) {
+      MessageDigest digest = newDigest();
+      updateWithBytecode(digest, ProcessBuilder.class);
+      updateWithBytecode(digest, ProcessImageBuilder.class);
+      generatorFingerprint = digest.digest();
+    }
+    return generatorFingerprint;
+  }
+
+  /**
+   * Add the bytecode of a class, its superclasses and interfaces to the digest. JDK classes are skipped.
+   *
+   * @param digest  the digest to update
+   * @param clazz   the class
+   * @param visited the classes already added
+   * @throws IOException if the bytecode could not be read
+   */
+  private void updateWithHierarchy(MessageDigest digest, Class<?> clazz, Set<Class<?>> visited) throws IOException {
+    if (clazz == null || clazz.getName().startsWith("java.") || !visited.add(clazz)) {
+      return;
+    }
+    updateWithBytecode(digest, clazz);
+    updateWithHierarchy(digest, clazz.getSuperclass(), visited);
+    for (Class<?> interfaceClass : clazz.getInterfaces()) {
+      updateWithHierarchy(digest, interfaceClass, visited);
+    }
+  }
+
+  /**
+   * Add the bytecode of the application classes referenced by a class to the digest, transitively. Application classes
+   * are the classes from the same location (jar or directory) as the class.
+   *
+   * @param digest  the digest to update
+   * @param clazz   the class
+   * @param visited the classes already added
+   * @throws IOException if the bytecode could not be read
+   */
+  private void updateWithReferences(MessageDigest digest, Class<?> clazz, Set<Class<?>> visited) throws IOException {
+    Object location = getLocation(clazz);
+    List<Class<?>> pending = new ArrayList<>();
+    pending.add(clazz);
+    Set<Class<?>> scanned = new HashSet<>();
+    while (!pending.isEmpty()) {
+      Class<?> current = pending.remove(pending.size() - 1);
+      if (!scanned.add(current)) {
+        continue;
+      }
+      for (String referencedClassName : getReferencedClassNames(current)) {
+        Class<?> referencedClass;
+        try {
+          referencedClass = Class.forName(referencedClassName, false, clazz.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+          continue;
+        }
+        if (location != null && location.equals(getLocation(referencedClass))) {
+          if (visited.add(referencedClass)) {
+            updateWithBytecode(digest, referencedClass);
+          }
+          pending.add(referencedClass);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the location (jar or directory) a class is loaded from
+   *
+   * @param clazz the class
+   * @return the location or <code>null</code> if unknown
+   */
+  private static Object getLocation(Class<?> clazz) {
+    if (clazz.getProtectionDomain() == null || clazz.getProtectionDomain().getCodeSource() == null) {
+      return null;
+    }
+    return Objects.toString(clazz.getProtectionDomain().getCodeSource().getLocation(), null);
+  }
+
+  /**
+   * Get the names of the classes referenced by the constant pool of a class file
+   *
+   * @param clazz the class
+   * @return the class names, sorted so the key does not depend on the constant pool order
+   * @throws IOException if the bytecode could not be read
+   */
+  private static Set<String> getReferencedClassNames(Class<?> clazz) throws IOException {
+    String classFile = "/" + clazz.getName().replace('.', '/') + ".class";
+    try (InputStream is = clazz.getResourceAsStream(classFile)) {
+      if (is == null) {
+        throw new IOException(String.format("Class file %s not found", classFile));
+      }
+      DataInputStream in = new DataInputStream(is);
+      in.readInt(); // magic
+      in.readUnsignedShort(); // minor version
+      in.readUnsignedShort(); // major version
+      int count = in.readUnsignedShort();
+      String[] utf8 = new String[count];
+      int[] classNameIndexes = new int[count];
+      for (int i = 1; i < count; i++) {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+          case 1: // utf8
+            utf8[i] = in.readUTF();
+            break;
+          case 7: // class
+            classNameIndexes[i] = in.readUnsignedShort();
+            break;
+          case 8: // string
+          case 16: // method type
+          case 19: // module
+          case 20: // package
+            in.readUnsignedShort();
+            break;
+          case 15: // method handle
+            in.skipBytes(3);
+            break;
+          case 3: // integer
+          case 4: // float
+          case 9: // field ref
+          case 10: // method ref
+          case 11: // interface method ref
+          case 12: // name and type
+          case 17: // dynamic
+          case 18: // invoke dynamic
+            in.skipBytes(4);
+            break;
+          case 5: // long
+          case 6: // double
+            in.skipBytes(8);
+            i++; // takes two entries
+            break;
+          default:
+            throw new IOException(String.format("Unknown constant pool tag %s in class file %s", tag, classFile));
+        }
+      }
+      Set<String> classNames = new TreeSet<>();
+      for (int classNameIndex : classNameIndexes) {
+        if (classNameIndex > 0) {
+          String name = utf8[classNameIndex].replaceFirst("^\\[+L?", "").replaceFirst(";$", "").replace('/', '.');
+          if (name.length() > 1 && !name.startsWith("java.")) {
+            classNames.add(name);
+          }
+        }
+      }
+      return classNames;
+    }
+  }
+
+  /**
+   * Add the bytecode of a class and its nested classes to the digest
+   *
+   * @param digest the digest to update
+   * @param clazz  the class
+   * @throws IOException if the bytecode could not be read
+   */
+  private void updateWithBytecode(MessageDigest digest, Class<?> clazz) throws IOException {
+    String classFile = "/" + clazz.getName().replace('.', '/') + ".class";
+    try (InputStream is = clazz.getResourceAsStream(classFile)) {
+      if (is == null) {
+        throw new IOException(String.format("Class file %s not found", classFile));
+      }
+      digest.update(StreamUtils.copyToByteArray(is));
+    }
+    for (Class<?> nestedClass : clazz.getDeclaredClasses()) {
+      updateWithBytecode(digest, nestedClass);
+    }
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not supported", e);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.kjar;
+
+import com.arvato.workflow.kie4developer.common.impl.FileSystemUtils;
+import java.io.File;
+import java.io.IOException;
+import org.appformer.maven.integration.Aether;
+import org.appformer.maven.integration.MavenRepository;
+import org.appformer.maven.integration.embedder.MavenSettings;
+import org.drools.compiler.kie.builder.impl.KieRepositoryImpl;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.kie.api.builder.ReleaseId;
+import org.kie.scanner.KieRepositoryScannerImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Helper to provide jar/kjar files to the local running (embedded) KIE server via a maven repository. The repository
+ * and the maven resolver state (Aether, KIE scanner) are set up once per JVM and reused by all further deployments,
+ * also across application contexts e.g. when running multiple unittests.
+ *
+ * @author TRIBE01
+ */
+@Component
+public class LocalRepositoryInstaller {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalRepositoryInstaller.class);
+  private static File repositoryDir; // guarded by LocalRepositoryInstaller.class
+  private FileSystemUtils fileSystemUtils;
+
+  public LocalRepositoryInstaller(FileSystemUtils fileSystemUtils) {
+    this.fileSystemUtils = fileSystemUtils;
+  }
+
+  /**
+   * Install a jar into the local maven repository of the KIE server. An already installed jar with the same release id
+   * gets replaced.
+   *
+   * @param releaseId the release id of the jar
+   * @param jarFile   the jar file to install
+   * @param pomFile   the pom file to install
+   * @return the local maven repository directory
+   * @throws IOException if the jar could not be installed
+   */
+  public File install(ReleaseId releaseId, File jarFile, File pomFile) throws IOException {
+    synchronized (LocalRepositoryInstaller.class) {
+      File repository = getRepositoryDir();
+      MavenRepository.getMavenRepository().installArtifact(releaseId, jarFile, pomFile);
+      File jarInRepo = new File(
+          repository.getAbsolutePath() + "/" + releaseId.getGroupId().replace('.', '/') + "/" + releaseId
+              .getArtifactId() + "/" + releaseId.getVersion() + "/" + releaseId.getArtifactId() + "-" + releaseId
+              .getVersion() + ".jar");
+      if (!jarInRepo.exists()) {
+        throw new IOException(String
+            .format("Error while installing jar file into local maven repository %s.", jarFile.getAbsolutePath()));
+      }
+      return repository;
+    }
+  }
+
+  /**
+   * Get the local maven repository and set up the maven resolver state if not done yet or if it was changed meanwhile
+   *
+   * @return the local maven repository directory
+   * @throws IOException if the repository could not be created
+   */
+  private File getRepositoryDir() throws IOException {
+    if (repositoryDir != null && repositoryDir.isDirectory() && repositoryDir.getAbsolutePath()
+        .equals(MavenSettings.getSettings().getLocalRepository())) {
+      return repositoryDir;
+    }
+    File repository = fileSystemUtils.createTempDirectory().toFile();
+    LOGGER.debug("Setting up local maven repository {}", repository);
+    // reset the cached maven repository of the jbpm server, it still points to the previous repository
+    MavenRepository.defaultMavenRepository = null;
+    Aether.instance = null;
+    KieRepositoryImpl.setInternalKieScanner(new KieRepositoryScannerImpl());
+    MavenSettings.getSettings().setLocalRepository(repository.getAbsolutePath());
+
+    // add the local maven repository as new remote repository for the local running kie server; the server fetch from there
+    String repositoryUrl = repository.toURI().toURL().toExternalForm();
+    MavenSettings.getMavenRepositoryConfiguration().getRemoteRepositoriesForRequest().clear();
+    RemoteRepository remoteRepository = new RemoteRepository.Builder("local", "maven2", repositoryUrl).build();
+    MavenSettings.getMavenRepositoryConfiguration().getRemoteRepositoriesForRequest().add(remoteRepository);
+    repositoryDir = repository;
+    return repositoryDir;
+  }
+}
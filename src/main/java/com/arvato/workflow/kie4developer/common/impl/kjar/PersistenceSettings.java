@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.kjar;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settings of the persistence unit within the persistence.xml of the Kjar. The settings are read from the
+ * <code>spring.application.persistence.*</code> properties, so they can be changed per release. They only apply to the
+ * JPA entities of the release: the engine entities (process instances, tasks, audit logs) are persisted by the
+ * <code>org.jbpm.domain</code> persistence unit of the KIE server, which a Kjar can't configure.
+ *
+ * @author TRIBE01
+ */
+@Component
+public class PersistenceSettings {
+
+  private String dataSource;
+  private String dialect;
+  private String jtaPlatform;
+  private String hbm2ddl;
+  private boolean production;
+  private boolean showSql;
+  private int maxFetchDepth;
+  private int jdbcBatchSize;
+  private boolean orderInserts;
+  private boolean orderUpdates;
+  private int queryPlanCacheSize;
+  private boolean secondLevelCache;
+  private String cacheRegionFactory;
+  private List<String> cachedEntities;
+  private String cacheConcurrencyStrategy;
+
+  public PersistenceSettings(@Value("${spring.application.persistence.datasource}") String dataSource,
+      @Value("${spring.application.persistence.dialect}") String dialect,
+      @Value("${spring.application.persistence.jtaplatform}") String jtaPlatform,
+      @Value("${spring.application.persistence.hbm2ddl}") String hbm2ddl,
+      @Value("${spring.application.persistence.production}") boolean production,
+      @Value("${spring.application.persistence.showsql}") boolean showSql,
+      @Value("${spring.application.persistence.maxfetchdepth}") int maxFetchDepth,
+      @Value("${spring.application.persistence.jdbc.batchsize}") int jdbcBatchSize,
+      @Value("${spring.application.persistence.order.inserts}") boolean orderInserts,
+      @Value("${spring.application.persistence.order.updates}") boolean orderUpdates,
+      @Value("${spring.application.persistence.queryplancache.size}") int queryPlanCacheSize,
+      @Value("${spring.application.persistence.cache.enabled}") boolean secondLevelCache,
+      @Value("${spring.application.persistence.cache.regionfactory}") String cacheRegionFactory,
+      @Value("${spring.application.persistence.cache.entities}") List<String> cachedEntities,
+      @Value("${spring.application.persistence.cache.concurrency}") String cacheConcurrencyStrategy) {
+    this.dataSource = dataSource;
+    this.dialect = dialect;
+    this.jtaPlatform = jtaPlatform;
+    this.hbm2ddl = hbm2ddl;
+    this.production = production;
+    this.showSql = showSql;
+    this.maxFetchDepth = maxFetchDepth;
+    this.jdbcBatchSize = jdbcBatchSize;
+    this.orderInserts = orderInserts;
+    this.orderUpdates = orderUpdates;
+    this.queryPlanCacheSize = queryPlanCacheSize;
+    this.secondLevelCache = secondLevelCache;
+    this.cacheRegionFactory = cacheRegionFactory;
+    this.cachedEntities = new ArrayList<>();
+    for (String cachedEntity : cachedEntities) {
+      if (!cachedEntity.trim().isEmpty()) {
+        this.cachedEntities.add(cachedEntity.trim());
+      }
+    }
+    this.cacheConcurrencyStrategy = cacheConcurrencyStrategy;
+  }
+
+  /**
+   * Get the JNDI name of the JTA datasource
+   *
+   * @return the datasource
+   */
+  public String getDataSource() {
+    return dataSource;
+  }
+
+  /**
+   * Get the schema generation mode. Production targets never generate the schema, so the startup does not compare the
+   * schema with the database.
+   *
+   * @return the value of hibernate.hbm2ddl.auto or <code>null</code> if the schema generation is disabled
+   */
+  public String getHbm2ddl() {
+    return production || hbm2ddl.isEmpty() || "none".equals(hbm2ddl) ? null : hbm2ddl;
+  }
+
+  /**
+   * Check if the second level cache is used
+   *
+   * @return <code>true</code> if the second level cache is enabled, otherwise <code>false</code>
+   */
+  public boolean isSecondLevelCache() {
+    return secondLevelCache;
+  }
+
+  /**
+   * Get the hibernate properties of the persistence unit
+   *
+   * @return the properties in the order of the persistence.xml
+   */
+  public Map<String, String> getProperties() {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("hibernate.dialect", dialect);
+    properties.put("hibernate.max_fetch_depth", String.valueOf(maxFetchDepth));
+    if (getHbm2ddl() != null) {
+      properties.put("hibernate.hbm2ddl.auto", getHbm2ddl());
+    }
+    properties.put("hibernate.show_sql", String.valueOf(showSql));
+    properties.put("hibernate.id.new_generator_mappings", "false");
+    properties.put("hibernate.transaction.jta.platform", jtaPlatform);
+    if (jdbcBatchSize > 0) {
+      properties.put("hibernate.jdbc.batch_size", String.valueOf(jdbcBatchSize));
+      properties.put("hibernate.jdbc.batch_versioned_data", "true");
+    }
+    properties.put("hibernate.order_inserts", String.valueOf(orderInserts));
+    properties.put("hibernate.order_updates", String.valueOf(orderUpdates));
+    if (queryPlanCacheSize > 0) {
+      properties.put("hibernate.query.plan_cache_max_size", String.valueOf(queryPlanCacheSize));
+    }
+    properties.put("hibernate.cache.use_second_level_cache", String.valueOf(secondLevelCache));
+    if (secondLevelCache) {
+      properties.put("hibernate.cache.region.factory_class", cacheRegionFactory);
+      for (String cachedEntity : cachedEntities) {
+        properties.put("hibernate.classcache." + cachedEntity, cacheConcurrencyStrategy);
+      }
+    }
+    return properties;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.migration;
+
+/**
+ * Limits the number of in-flight server requests. The limit grows by one for every request that is answered within the
+ * latency threshold and gets halved for every request that is slower or fails (additive increase, multiplicative
+ * decrease), so the load adapts to what the server can handle.
+ *
+ * @author TRIBE01
+ */
+class AdaptiveLimiter {
+
+  private final int maxLimit;
+  private final long latencyThreshold;
+  private int limit;
+  private int inFlight;
+
+  /**
+   * Create the limiter
+   *
+   * @param maxLimit         the maximum number of in-flight requests
+   * @param latencyThreshold the latency in milliseconds above which the server counts as overloaded
+   */
+  AdaptiveLimiter(int maxLimit, long latencyThreshold) {
+    this.maxLimit = Math.max(1, maxLimit);
+    this.latencyThreshold = latencyThreshold;
+    this.limit = this.maxLimit;
+  }
+
+  /**
+   * Wait until a request may be sent
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  synchronized void acquire() throws InterruptedException {
+    while (inFlight >= limit) {
+      wait();
+    }
+    inFlight++;
+  }
+
+  /**
+   * Release a request and adapt the limit
+   *
+   * @param latency the latency of the request in milliseconds
+   * @param success <code>true</code> if the request was successful
+   */
+  synchronized void release(long latency, boolean success) {
+    inFlight--;
+    if (!success || latency > latencyThreshold) {
+      limit = Math.max(1, limit / 2);
+    } else if (limit < maxLimit) {
+      limit++;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Get the current limit
+   *
+   * @return the number of requests that may be in-flight
+   */
+  synchronized int getLimit() {
+    return limit;
+  }
+}
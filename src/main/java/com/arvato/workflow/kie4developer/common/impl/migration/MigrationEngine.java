@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.migration;
+
+import com.arvato.workflow.kie4developer.common.impl.KieClient;
+import com.arvato.workflow.kie4developer.common.model.MigrationSummary;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.kie.server.api.model.admin.MigrationReportInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Migrates process instances between containers. The process instances are migrated in chunks, which are sent
+ * concurrently to the KIE Server. The number of in-flight chunks adapts to the latency of the server.
+ *
+ * @author TRIBE01
+ */
+@Component
+public class MigrationEngine {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MigrationEngine.class);
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private KieClient kieClient;
+  private int parallelism;
+  private long latencyThreshold;
+
+  public MigrationEngine(KieClient kieClient,
+      @Value("${spring.application.migration.parallelism}") int parallelism,
+      @Value("${spring.application.migration.latency.threshold}") long latencyThreshold) {
+    this.kieClient = kieClient;
+    this.parallelism = Math.max(1, parallelism);
+    this.latencyThreshold = latencyThreshold;
+  }
+
+  /**
+   * Migrate process instances asynchronously. The chunks are requested one after another from the dispatcher thread,
+   * so they can be read lazily e.g. page by page from the server.
+   *
+   * @param sourceContainerId the container id of the process instances
+   * @param targetContainerId the container id to migrate to
+   * @param chunks            the chunks of process instances to migrate
+   * @param reportConsumer    consumer for the report of every process instance, called as soon as the report is
+   *                          available (possibly from several threads at the same time). If the consumer throws an
+   *                          exception no further chunks are sent and the future completes exceptionally.
+   * @return the future of the migration summary
+   */
+  public CompletableFuture<MigrationSummary> migrate(String sourceContainerId, String targetContainerId,
+      Iterator<Chunk> chunks, Consumer<MigrationReportInstance> reportConsumer) {
+    CompletableFuture<MigrationSummary> future = new CompletableFuture<>();
+    Thread dispatcher = new Thread(() -> {
+      try {
+        future.complete(dispatch(sourceContainerId, targetContainerId, chunks, reportConsumer));
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    }, "MigrationEngine-dispatcher-" + THREAD_COUNT.incrementAndGet());
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+    return future;
+  }
+
+  /**
+   * Send the chunks to the server and wait until all chunks are migrated
+   *
+   * @param sourceContainerId the container id of the process instances
+   * @param targetContainerId the container id to migrate to
+   * @param chunks            the chunks of process instances to migrate
+   * @param reportConsumer    consumer for the report of every process instance
+   * @return the migration summary
+   * @throws InterruptedException if interrupted while waiting
+   * @throws Throwable            the first exception thrown by the report consumer
+   */
+  private MigrationSummary dispatch(String sourceContainerId, String targetContainerId, Iterator<Chunk> chunks,
+      Consumer<MigrationReportInstance> reportConsumer) throws Throwable {
+    MigrationSummary summary = new MigrationSummary();
+    AtomicReference<Throwable> consumerError = new AtomicReference<>();
+    AdaptiveLimiter limiter = new AdaptiveLimiter(parallelism, latencyThreshold);
+    ExecutorService workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "MigrationEngine-worker-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      while (consumerError.get() == null && chunks.hasNext()) {
+        Chunk chunk = chunks.next();
+        limiter.acquire();
+        workers.execute(() -> {
+          long start = System.currentTimeMillis();
+          List<MigrationReportInstance> reports;
+          boolean success = true;
+          try {
+            reports = kieClient.getProcessAdminClient().migrateProcessInstances(sourceContainerId,
+                chunk.getProcessInstanceIds(), targetContainerId, chunk.getTargetProcessId());
+          } catch (Exception e) {
+            LOGGER.error("Error while migrating {} process instances to process {}",
+                chunk.getProcessInstanceIds().size(), chunk.getTargetProcessId(), e);
+            reports = createFailureReports(chunk.getProcessInstanceIds(), e);
+            success = false;
+          }
+          limiter.release(System.currentTimeMillis() - start, success);
+          try {
+            for (MigrationReportInstance report : reports) {
+              summary.add(report);
+              reportConsumer.accept(report);
+            }
+          } catch (Throwable t) {
+            LOGGER.error("Error in migration report consumer, stopping the migration", t);
+            consumerError.compareAndSet(null, t);
+          }
+          LOGGER.info("Migration progress: {} process instances migrated, {} failed (in-flight limit {})",
+              summary.getSuccessful(), summary.getFailed(), limiter.getLimit());
+        });
+      }
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } finally {
+      workers.shutdownNow();
+    }
+    if (consumerError.get() != null) {
+      throw consumerError.get();
+    }
+    summary.finish();
+    return summary;
+  }
+
+  /**
+   * Create the reports for a chunk that could not be migrated at all
+   *
+   * @param processInstanceIds the process instance ids of the chunk
+   * @param cause              the error
+   * @return the failure reports
+   */
+  private List<MigrationReportInstance> createFailureReports(List<Long> processInstanceIds, Exception cause) {
+    Date now = new Date();
+    List<MigrationReportInstance> reports = new ArrayList<>();
+    for (Long processInstanceId : processInstanceIds) {
+      MigrationReportInstance report = new MigrationReportInstance();
+      report.setProcessInstanceId(processInstanceId);
+      report.setSuccessful(false);
+      report.setStartDate(now);
+      report.setEndDate(now);
+      report.setLogs(Collections.singletonList(cause.toString()));
+      reports.add(report);
+    }
+    return reports;
+  }
+
+  /**
+   * Process instances to migrate to the same process within one request
+   */
+  public static class Chunk {
+
+    private final String targetProcessId;
+    private final List<Long> processInstanceIds;
+
+    /**
+     * Create a chunk
+     *
+     * @param targetProcessId    the process id to migrate to
+     * @param processInstanceIds the process instance ids
+     */
+    public Chunk(String targetProcessId, List<Long> processInstanceIds) {
+      this.targetProcessId = targetProcessId;
+      this.processInstanceIds = processInstanceIds;
+    }
+
+    public String getTargetProcessId() {
+      return targetProcessId;
+    }
+
+    public List<Long> getProcessInstanceIds() {
+      return processInstanceIds;
+    }
+  }
+}
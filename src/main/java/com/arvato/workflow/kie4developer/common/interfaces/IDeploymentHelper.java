@@ -15,7 +15,10 @@
  */
 package com.arvato.workflow.kie4developer.common.interfaces;
 
+import com.arvato.workflow.kie4developer.common.model.MigrationSummary;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import org.kie.server.api.model.admin.MigrationReportInstance;
 
 /**
@@ -81,6 +84,21 @@ public interface IDeploymentHelper {
 	 */
 	boolean deploy(boolean overwrite);
 
+	/**
+	 * Deploy all given Processes into a new Server Container with the alias of the release (blue/green deployment). The
+	 * alias is resolved to the started Container with the highest version, so the release version must be higher than
+	 * the version of the old Container. The new Container is created deactivated and gets warmed up (process
+	 * definitions, optional synthetic starts of mocked processes in a staging Container) before it is activated and
+	 * requests to the alias are routed to it. If the warm-up or the activation fails the new Container gets removed and
+	 * the alias keeps routing to the old Container; an active Container is never removed automatically. The old
+	 * Container is not undeployed, its process instances can be migrated afterwards.
+	 *
+	 * @param oldContainerId the container id currently serving the alias
+	 * @return <code>true</code> if deployment was successful, otherwise <code>false</code>
+	 * @see {@link IDeploymentHelper#migrate(String)}
+	 */
+	boolean deployBlueGreen(String oldContainerId);
+
 	/**
 	 * Undeploy the Server Container
 	 *
@@ -110,4 +128,16 @@ public interface IDeploymentHelper {
 	 */
 	List<MigrationReportInstance> migrate(String oldContainerId);
 
+	/**
+	 * Migrate all active process instances from one Server Container into another asynchronously. The process instances
+	 * are migrated in concurrent chunks. Old Container gets undeployed after the migration.
+	 *
+	 * @param oldContainerId the container id containing the old active process instances
+	 * @param reportConsumer consumer for the migration report of every single process instance, called as soon as the
+	 *                       report is available (possibly from several threads at the same time)
+	 * @return the future of the aggregated migration result
+	 * @see {@link MigrationReportInstance}
+	 */
+	CompletableFuture<MigrationSummary> migrateAsync(String oldContainerId, Consumer<MigrationReportInstance> reportConsumer);
+
 }
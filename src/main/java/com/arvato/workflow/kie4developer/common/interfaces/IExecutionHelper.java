@@ -15,8 +15,11 @@
  */
 package com.arvato.workflow.kie4developer.common.interfaces;
 
+import com.arvato.workflow.kie4developer.common.model.ProcessStartRequest;
+import com.arvato.workflow.kie4developer.common.model.ProcessStartResult;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 import org.kie.server.api.model.instance.TaskSummary;
 
 /**
@@ -37,6 +40,16 @@ public interface IExecutionHelper {
    */
   Long startNewProcessInstance(String deploymentId, String processId, Map<String, Object> params);
 
+  /**
+   * Start many new Process Instances. The starts are sent concurrently by a bounded pool of workers, a failed start
+   * does not affect the other starts. This call blocks until all starts are done.
+   *
+   * @param deploymentId the deployment id (typical equal to the process id)
+   * @param requests     the process ids and process instance variables to start
+   * @return the results in the order of the requests
+   */
+  List<ProcessStartResult> startNewProcessInstances(String deploymentId, List<ProcessStartRequest> requests);
+
   /**
    * Abort a running Process Instance.
    *
@@ -52,6 +65,34 @@ public interface IExecutionHelper {
    */
   List<TaskSummary> getTasks(String username);
 
+  /**
+   * Get one page of assigned tasks.
+   *
+   * @param username  the username
+   * @param status    the task status to filter for (e.g. Ready, Reserved, InProgress) or <code>null</code> for all
+   * @param filter    text to filter the task name and description for or <code>null</code> for all tasks
+   * @param page      the page number (starting with 0)
+   * @param pageSize  the count of tasks per page
+   * @param sort      the column to sort by (e.g. Id, Name, CreatedOn) or <code>null</code> for the server default
+   * @param ascending <code>true</code> for ascending, <code>false</code> for descending order
+   * @return list of tasks that can be processed
+   */
+  List<TaskSummary> getTasks(String username, List<String> status, String filter, int page, int pageSize, String sort,
+      boolean ascending);
+
+  /**
+   * Get all assigned tasks as lazy stream. The pages are read on demand, so only one page is held in memory at a time.
+   * Tasks that change while streaming may be skipped or returned twice.
+   *
+   * @param username  the username
+   * @param status    the task status to filter for (e.g. Ready, Reserved, InProgress) or <code>null</code> for all
+   * @param filter    text to filter the task name and description for or <code>null</code> for all tasks
+   * @param sort      the column to sort by (e.g. Id, Name, CreatedOn) or <code>null</code> for the server default
+   * @param ascending <code>true</code> for ascending, <code>false</code> for descending order
+   * @return stream of tasks that can be processed
+   */
+  Stream<TaskSummary> streamTasks(String username, List<String> status, String filter, String sort, boolean ascending);
+
   /**
    * Delegate task to a new user.
    *
@@ -15,6 +15,9 @@
  */
 package com.arvato.workflow.kie4developer.common.interfaces;
 
+import com.arvato.workflow.kie4developer.common.model.AuditMode;
+import org.kie.internal.runtime.conf.RuntimeStrategy;
+
 /**
  * Interface to define a Release aka JBPM DeploymentUnit
  *
@@ -101,6 +104,43 @@ public interface IRelease {
    */
   boolean isIncludeTaskEventListener();
 
+  /**
+   * Get the runtime strategy, which defines how KieSessions are shared between process instances
+   *
+   * @return the runtime strategy for the deployment descriptor
+   */
+  default RuntimeStrategy getRuntimeStrategy() {
+    return RuntimeStrategy.PER_PROCESS_INSTANCE;
+  }
+
+  /**
+   * Get the audit mode, which defines how the audit logs are written
+   *
+   * @return the audit mode for the deployment descriptor
+   */
+  default AuditMode getAuditMode() {
+    return AuditMode.JPA;
+  }
+
+  /**
+   * Check if the serializable classes of the release are marshalled as JSON instead of java serialization
+   *
+   * @return <code>true</code> to register the JSON marshalling strategy in the deployment descriptor
+   */
+  default boolean isJsonMarshalling() {
+    return false;
+  }
+
+  /**
+   * Check if large {@link com.arvato.workflow.kie4developer.marshalling.ExternalizedVariable}s are kept in the content
+   * store instead of the process instance
+   *
+   * @return <code>true</code> to register the content store marshalling strategy in the deployment descriptor
+   */
+  default boolean isExternalizedVariables() {
+    return false;
+  }
+
   /**
    * Get the unique deployment id for the release.
    *
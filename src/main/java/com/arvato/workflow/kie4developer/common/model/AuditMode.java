@@ -0,0 +1,37 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.model;
+
+/**
+ * Audit mode of a release, defines how the audit logs (process instance, node instance and variable logs) are written
+ *
+ * @author TRIBE01
+ */
+public enum AuditMode {
+  /**
+   * the audit logs are written within the transaction of the engine
+   */
+  JPA,
+  /**
+   * no audit logs are written, the process instances of a container can't be found (no migration and undeployment)
+   */
+  NONE,
+  /**
+   * the node instance and variable logs of committed transactions are buffered and written in batches by a background
+   * thread, the process instance logs and the task audit logs are written within the transaction of the engine
+   */
+  ASYNC
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.kie.server.api.model.admin.MigrationReportInstance;
+
+/**
+ * Aggregated result of a process instance migration. Only the ids of failed process instances are kept, the single
+ * migration reports are passed to the report consumer of the migration.
+ *
+ * @author TRIBE01
+ */
+public class MigrationSummary {
+
+  private final long startTime = System.currentTimeMillis();
+  private final AtomicLong successful = new AtomicLong();
+  private final Queue<Long> failedProcessInstanceIds = new ConcurrentLinkedQueue<>();
+  private volatile long endTime;
+
+  /**
+   * Add a migration report
+   *
+   * @param report the report of a single process instance
+   */
+  public void add(MigrationReportInstance report) {
+    if (report.isSuccessful()) {
+      successful.incrementAndGet();
+    } else {
+      failedProcessInstanceIds.add(report.getProcessInstanceId());
+    }
+  }
+
+  /**
+   * Mark the migration as finished
+   */
+  public void finish() {
+    endTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Get the count of migrated process instances
+   *
+   * @return the count of successful and failed migrations
+   */
+  public long getTotal() {
+    return getSuccessful() + getFailed();
+  }
+
+  /**
+   * Get the count of successful migrated process instances
+   *
+   * @return the count of successful migrations
+   */
+  public long getSuccessful() {
+    return successful.get();
+  }
+
+  /**
+   * Get the count of process instances that failed to migrate
+   *
+   * @return the count of failed migrations
+   */
+  public long getFailed() {
+    return failedProcessInstanceIds.size();
+  }
+
+  /**
+   * Get the ids of the process instances that failed to migrate
+   *
+   * @return the process instance ids
+   */
+  public List<Long> getFailedProcessInstanceIds() {
+    return new ArrayList<>(failedProcessInstanceIds);
+  }
+
+  /**
+   * Check if all process instances were migrated
+   *
+   * @return <code>true</code> if no migration failed, otherwise <code>false</code>
+   */
+  public boolean isSuccessful() {
+    return failedProcessInstanceIds.isEmpty();
+  }
+
+  /**
+   * Get the duration of the migration
+   *
+   * @return the duration in milliseconds
+   */
+  public long getDuration() {
+    return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MigrationSummary{total=%d, successful=%d, failed=%d, duration=%dms}", getTotal(),
+        getSuccessful(), getFailed(), getDuration());
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.model;
+
+import java.util.Map;
+
+/**
+ * Request to start a new process instance within a batch start
+ *
+ * @author TRIBE01
+ */
+public class ProcessStartRequest {
+
+  private final String processId;
+  private final Map<String, Object> params;
+
+  /**
+   * Create a start request
+   *
+   * @param processId the process id
+   * @param params    the process instance variables (optional)
+   */
+  public ProcessStartRequest(String processId, Map<String, Object> params) {
+    this.processId = processId;
+    this.params = params;
+  }
+
+  public String getProcessId() {
+    return processId;
+  }
+
+  public Map<String, Object> getParams() {
+    return params;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.model;
+
+/**
+ * Result of a single process start within a batch start. Either the process instance id or the error is set.
+ *
+ * @author TRIBE01
+ */
+public class ProcessStartResult {
+
+  private final ProcessStartRequest request;
+  private final Long processInstanceId;
+  private final Exception error;
+
+  private ProcessStartResult(ProcessStartRequest request, Long processInstanceId, Exception error) {
+    this.request = request;
+    this.processInstanceId = processInstanceId;
+    this.error = error;
+  }
+
+  /**
+   * Create the result of a started process instance
+   *
+   * @param request           the start request
+   * @param processInstanceId the new process instance id
+   * @return the result
+   */
+  public static ProcessStartResult success(ProcessStartRequest request, Long processInstanceId) {
+    return new ProcessStartResult(request, processInstanceId, null);
+  }
+
+  /**
+   * Create the result of a failed process start
+   *
+   * @param request the start request
+   * @param error   the error
+   * @return the result
+   */
+  public static ProcessStartResult failure(ProcessStartRequest request, Exception error) {
+    return new ProcessStartResult(request, null, error);
+  }
+
+  public ProcessStartRequest getRequest() {
+    return request;
+  }
+
+  public Long getProcessInstanceId() {
+    return processInstanceId;
+  }
+
+  public Exception getError() {
+    return error;
+  }
+
+  /**
+   * Check if the process instance was started
+   *
+   * @return <code>true</code> if started, otherwise <code>false</code>
+   */
+  public boolean isSuccessful() {
+    return error == null;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionManagerFactory;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.jbpm.process.audit.NodeInstanceLog;
+import org.jbpm.process.audit.ProcessInstanceLog;
+import org.jbpm.process.audit.event.AuditEventBuilder;
+import org.jbpm.process.audit.event.DefaultAuditEventBuilderImpl;
+import org.jbpm.workflow.instance.impl.NodeInstanceImpl;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.event.process.ProcessVariableChangedEvent;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeManager;
+
+/**
+ * Process event listener that writes the audit logs asynchronously. The node instance and variable logs of an engine
+ * transaction are collected and handed over to the {@link AsyncAuditWriter} after the transaction committed, logs of a
+ * rolled back transaction are dropped. The writer writes them in batches outside of the engine transaction. The
+ * process instance logs are written within the engine transaction like the JPA audit logger does, so the active
+ * process instances of a container are always found (migration, undeployment). The callbacks mirror the JPA audit
+ * logger, e.g. the work item id and the sub process instance id of a node instance log are set after the node was
+ * triggered. Use together with the audit mode NONE, otherwise the logs are written twice. Only the process audit logs
+ * are written, the task audit logs are written by the task event listeners of the deployment.
+ *
+ * @author TRIBE01
+ */
+public class AsyncAuditEventListener extends DefaultProcessEventListener {
+
+  private final AuditEventBuilder builder = new DefaultAuditEventBuilderImpl();
+  private static final String NODE_INSTANCE_LOG = "NodeInstanceLog";
+  private final TransactionManager transactionManager;
+  private final EntityManagerFactory entityManagerFactory;
+  private final AsyncAuditWriter writer;
+
+  /**
+   * Create the listener, used by the deployment descriptor (resolver mvel)
+   *
+   * @param ksession       the session to listen to
+   * @param runtimeManager the runtime manager of the deployment, the writer is bound to its lifecycle
+   * @param batchSize      the maximum count of logs written in one transaction
+   * @param flushInterval  the maximum time in milliseconds a log is buffered
+   */
+  public AsyncAuditEventListener(KieSession ksession, RuntimeManager runtimeManager, int batchSize,
+      long flushInterval) {
+    Environment env = ksession.getEnvironment();
+    TransactionManager transactionManager = (TransactionManager) env.get(EnvironmentName.TRANSACTION_MANAGER);
+    if (transactionManager == null) {
+      transactionManager = TransactionManagerFactory.get().newTransactionManager();
+    }
+    this.transactionManager = transactionManager;
+    this.entityManagerFactory = (EntityManagerFactory) env.get(EnvironmentName.ENTITY_MANAGER_FACTORY);
+    this.writer = AsyncAuditWriter.get(runtimeManager, entityManagerFactory, transactionManager, batchSize,
+        flushInterval);
+  }
+
+  @Override
+  public void beforeProcessStarted(ProcessStartedEvent event) {
+    Object log = builder.buildEvent(event);
+    EntityManager em = getEntityManager(event);
+    if (em == null) {
+      add(log);
+      return;
+    }
+    try {
+      em.persist(log);
+    } finally {
+      release(event, em);
+    }
+  }
+
+  @Override
+  public void afterProcessCompleted(ProcessCompletedEvent event) {
+    EntityManager em = getEntityManager(event);
+    if (em == null) {
+      add(builder.buildEvent(event, null));
+      return;
+    }
+    try {
+      List<ProcessInstanceLog> logs = em.createQuery(
+          "FROM ProcessInstanceLog log WHERE log.processInstanceId = :processInstanceId AND log.end IS NULL",
+          ProcessInstanceLog.class)
+          .setParameter("processInstanceId", event.getProcessInstance().getId())
+          .getResultList();
+      if (logs.isEmpty()) {
+        em.persist(builder.buildEvent(event, null));
+      } else {
+        em.merge(builder.buildEvent(event, logs.get(logs.size() - 1)));
+      }
+    } finally {
+      release(event, em);
+    }
+  }
+
+  @Override
+  public void beforeNodeTriggered(ProcessNodeTriggeredEvent event) {
+    Object log = builder.buildEvent(event);
+    // kept for afterNodeTriggered, like the JPA audit logger does
+    ((NodeInstanceImpl) event.getNodeInstance()).getMetaData().put(NODE_INSTANCE_LOG, log);
+    add(log);
+  }
+
+  @Override
+  public void afterNodeTriggered(ProcessNodeTriggeredEvent event) {
+    // sets the work item id or sub process instance id, the log is still buffered within the transaction
+    NodeInstanceLog log = (NodeInstanceLog) ((NodeInstanceImpl) event.getNodeInstance()).getMetaData()
+        .remove(NODE_INSTANCE_LOG);
+    if (log != null) {
+      builder.buildEvent(event, log);
+    }
+  }
+
+  @Override
+  public void beforeNodeLeft(ProcessNodeLeftEvent event) {
+    add(builder.buildEvent(event, null));
+  }
+
+  @Override
+  public void afterVariableChanged(ProcessVariableChangedEvent event) {
+    add(builder.buildEvent(event));
+  }
+
+  /**
+   * Get the entity manager of the engine transaction
+   *
+   * @param event the process event
+   * @return the entity manager joined to the transaction or <code>null</code> without an active transaction
+   */
+  private EntityManager getEntityManager(ProcessEvent event) {
+    if (transactionManager.getStatus() != TransactionManager.STATUS_ACTIVE) {
+      return null;
+    }
+    EntityManager em = (EntityManager) event.getKieRuntime().getEnvironment()
+        .get(EnvironmentName.CMD_SCOPED_ENTITY_MANAGER);
+    if (em == null) {
+      em = entityManagerFactory.createEntityManager();
+    }
+    em.joinTransaction();
+    return em;
+  }
+
+  /**
+   * Release an entity manager of {@link #getEntityManager(ProcessEvent)}, the command scoped entity manager is closed
+   * by the engine
+   *
+   * @param event the process event
+   * @param em    the entity manager
+   */
+  private void release(ProcessEvent event, EntityManager em) {
+    if (em != event.getKieRuntime().getEnvironment().get(EnvironmentName.CMD_SCOPED_ENTITY_MANAGER)) {
+      em.flush();
+      em.close();
+    }
+  }
+
+  /**
+   * Collect a log within the current transaction. Without an active transaction the log is handed over at once.
+   *
+   * @param log the audit log entity
+   */
+  @SuppressWarnings("unchecked")
+  private void add(Object log) {
+    if (transactionManager.getStatus() != TransactionManager.STATUS_ACTIVE) {
+      writer.addAll(Collections.singletonList(log));
+      return;
+    }
+    // the buffer is a resource of the transaction, shared by all listeners of the deployment
+    List<Object> logs = (List<Object>) transactionManager.getResource(writer);
+    if (logs == null) {
+      logs = new ArrayList<>();
+      transactionManager.putResource(writer, logs);
+      transactionManager.registerTransactionSynchronization(new CommitSynchronization(writer, logs));
+    }
+    logs.add(log);
+  }
+
+  /**
+   * Hands over the logs of a transaction to the writer after the transaction committed
+   */
+  private static class CommitSynchronization implements TransactionSynchronization {
+
+    private final AsyncAuditWriter writer;
+    private final List<Object> logs;
+
+    CommitSynchronization(AsyncAuditWriter writer, List<Object> logs) {
+      this.writer = writer;
+      this.logs = logs;
+    }
+
+    @Override
+    public void beforeCompletion() {
+      // nothing to do, the logs are written after the commit
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      if (status == TransactionManager.STATUS_COMMITTED) {
+        writer.addAll(logs);
+      }
+    }
+  }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.drools.persistence.api.TransactionManager;
+import org.jbpm.process.audit.NodeInstanceLog;
+import org.jbpm.process.audit.ProcessInstanceLog;
+import org.jbpm.process.audit.VariableInstanceLog;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.internal.runtime.Cacheable;
+import org.kie.internal.runtime.manager.CacheManager;
+import org.kie.internal.runtime.manager.InternalRuntimeManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes audit logs in batches from a background thread. There is one writer per runtime manager (deployment), shared
+ * by all sessions. If the buffer is full the engine threads wait until the writer caught up. The writer lives in the
+ * cache of the runtime manager, so it gets stopped when the deployment is disposed; logs still buffered then (or on
+ * shutdown) are written before the writer stops, logs added after that are written at once. If a batch can't be
+ * written, its logs are retried one by one, so a single failing log does not drop the others.
+ *
+ * @author TRIBE01
+ */
+public class AsyncAuditWriter implements Cacheable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncAuditWriter.class);
+  private static final String CACHE_KEY = AsyncAuditWriter.class.getName();
+  private static final int MAX_ATTEMPTS = 5;
+  private final EntityManagerFactory entityManagerFactory;
+  private final TransactionManager transactionManager;
+  private final int batchSize;
+  private final long flushInterval;
+  private final BlockingQueue<Object> queue;
+  private final Thread thread;
+  private final Thread shutdownHook;
+  private volatile boolean stopped = false;
+
+  private AsyncAuditWriter(String deploymentId, EntityManagerFactory entityManagerFactory,
+      TransactionManager transactionManager, int batchSize, long flushInterval) {
+    this.entityManagerFactory = entityManagerFactory;
+    this.transactionManager = transactionManager;
+    this.batchSize = Math.max(1, batchSize);
+    this.flushInterval = Math.max(1, flushInterval);
+    this.queue = new LinkedBlockingQueue<>(this.batchSize * 20);
+    this.thread = new Thread(this::run, "AsyncAuditWriter-" + deploymentId);
+    this.thread.setDaemon(true);
+    this.shutdownHook = new Thread(this::close, "AsyncAuditWriter-shutdown-" + deploymentId);
+  }
+
+  /**
+   * Get the writer of a runtime manager, the writer gets started on first use
+   *
+   * @param runtimeManager       the runtime manager of the deployment
+   * @param entityManagerFactory the persistence unit of the audit logs
+   * @param transactionManager   the transaction manager
+   * @param batchSize            the maximum count of logs written in one transaction
+   * @param flushInterval        the maximum time in milliseconds a log is buffered
+   * @return the writer
+   */
+  static AsyncAuditWriter get(RuntimeManager runtimeManager, EntityManagerFactory entityManagerFactory,
+      TransactionManager transactionManager, int batchSize, long flushInterval) {
+    CacheManager cacheManager = ((InternalRuntimeManager) runtimeManager).getCacheManager();
+    synchronized (cacheManager) {
+      AsyncAuditWriter writer = (AsyncAuditWriter) cacheManager.get(CACHE_KEY);
+      if (writer == null) {
+        writer = new AsyncAuditWriter(runtimeManager.getIdentifier(), entityManagerFactory, transactionManager,
+            batchSize, flushInterval);
+        writer.thread.start();
+        Runtime.getRuntime().addShutdownHook(writer.shutdownHook);
+        // the cache manager closes the writer when the runtime manager is closed
+        cacheManager.add(CACHE_KEY, writer);
+      }
+      return writer;
+    }
+  }
+
+  /**
+   * Add logs to the buffer. If the writer is stopped, the logs are written at once.
+   *
+   * @param logs the audit log entities
+   */
+  void addAll(List<Object> logs) {
+    try {
+      for (Object log : logs) {
+        // the writer thread does not take logs anymore once it is stopped, so a full buffer is written here
+        while (!queue.offer(log, flushInterval, TimeUnit.MILLISECONDS)) {
+          if (stopped) {
+            flushDetached();
+          }
+        }
+      }
+      if (stopped) {
+        flushDetached();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.warn("Interrupted while buffering {} audit logs", logs.size());
+    }
+  }
+
+  /**
+   * Stop the writer and write all buffered logs
+   */
+  @Override
+  public void close() {
+    // the writer thread is not interrupted while it writes, it stops after the current batch
+    stopped = true;
+    try {
+      thread.join(flushInterval * 3);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    if (Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // shutdown in progress
+      }
+    }
+  }
+
+  /**
+   * Write the logs as soon as a batch is full or the flush interval has passed
+   */
+  private void run() {
+    List<Object> batch = new ArrayList<>(batchSize);
+    while (!stopped) {
+      try {
+        Object log = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+        if (log == null) {
+          continue;
+        }
+        batch.add(log);
+        long deadline = System.currentTimeMillis() + flushInterval;
+        while (batch.size() < batchSize && System.currentTimeMillis() < deadline) {
+          if (queue.drainTo(batch, batchSize - batch.size()) == 0) {
+            log = queue.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            if (log != null) {
+              batch.add(log);
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        LOGGER.debug("Interrupted while collecting audit logs");
+      }
+      if (!batch.isEmpty()) {
+        write(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+  }
+
+  /**
+   * Write all buffered logs by another thread, the caller may run within the completion of an engine transaction
+   *
+   * @throws InterruptedException if interrupted while waiting for the logs to be written
+   */
+  private void flushDetached() throws InterruptedException {
+    Thread flushThread = new Thread(this::flush, thread.getName() + "-flush");
+    flushThread.start();
+    flushThread.join();
+  }
+
+  /**
+   * Write all buffered logs
+   */
+  private synchronized void flush() {
+    List<Object> batch = new ArrayList<>(batchSize);
+    while (queue.drainTo(batch, batchSize) > 0) {
+      write(batch);
+      batch.clear();
+    }
+  }
+
+  /**
+   * Write a batch of logs. If the batch fails, every log is written on its own and retried, a log is only given up
+   * (and logged with its content) after {@link #MAX_ATTEMPTS} failed attempts.
+   *
+   * @param batch the logs
+   */
+  private synchronized void write(List<Object> batch) {
+    if (writeBatch(batch)) {
+      return;
+    }
+    for (Object log : batch) {
+      int attempt = 1;
+      while (!writeBatch(Collections.singletonList(log))) {
+        if (++attempt > MAX_ATTEMPTS) {
+          LOGGER.error("Audit log could not be written after {} attempts: {}", MAX_ATTEMPTS, log);
+          break;
+        }
+        try {
+          Thread.sleep(flushInterval * attempt);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          LOGGER.error("Interrupted while retrying audit log: {}", log);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Write a batch of logs within one transaction. Completed process instances update the existing process instance
+   * log, all other logs are inserted.
+   *
+   * @param batch the logs
+   * @return <code>true</code> if the batch was written, <code>false</code> if the transaction was rolled back
+   */
+  private boolean writeBatch(List<Object> batch) {
+    boolean transactionOwner = false;
+    try {
+      transactionOwner = transactionManager.begin();
+      EntityManager em = entityManagerFactory.createEntityManager();
+      try {
+        em.joinTransaction();
+        for (Object log : batch) {
+          if (log instanceof ProcessInstanceLog && ((ProcessInstanceLog) log).getEnd() != null) {
+            updateProcessInstanceLog(em, (ProcessInstanceLog) log);
+          } else {
+            em.persist(log);
+          }
+        }
+        em.flush();
+      } finally {
+        em.close();
+      }
+      transactionManager.commit(transactionOwner);
+      return true;
+    } catch (Exception e) {
+      LOGGER.warn("Error while writing {} audit logs", batch.size(), e);
+      try {
+        transactionManager.rollback(transactionOwner);
+      } catch (Exception rollbackException) {
+        LOGGER.debug("Error while rolling back audit log transaction", rollbackException);
+      }
+      // the ids generated within the rolled back transaction are reset, so the logs are inserted again
+      batch.forEach(AsyncAuditWriter::resetId);
+      return false;
+    }
+  }
+
+  /**
+   * Reset the generated id of a log
+   *
+   * @param log the log
+   */
+  private static void resetId(Object log) {
+    if (log instanceof ProcessInstanceLog) {
+      ((ProcessInstanceLog) log).setId(0);
+    } else if (log instanceof NodeInstanceLog) {
+      ((NodeInstanceLog) log).setId(0);
+    } else if (log instanceof VariableInstanceLog) {
+      ((VariableInstanceLog) log).setId(0);
+    }
+  }
+
+  /**
+   * Update the process instance log of a completed process instance
+   *
+   * @param em  the entity manager
+   * @param log the log of the completed process instance
+   */
+  private void updateProcessInstanceLog(EntityManager em, ProcessInstanceLog log) {
+    List<ProcessInstanceLog> existingLogs = em
+        .createQuery("FROM ProcessInstanceLog WHERE processInstanceId = :processInstanceId", ProcessInstanceLog.class)
+        .setParameter("processInstanceId", log.getProcessInstanceId())
+        .getResultList();
+    if (existingLogs.isEmpty()) {
+      em.persist(log);
+      return;
+    }
+    for (ProcessInstanceLog existingLog : existingLogs) {
+      existingLog.setEnd(log.getEnd());
+      existingLog.setStatus(log.getStatus());
+      existingLog.setOutcome(log.getOutcome());
+      if (existingLog.getStart() != null) {
+        existingLog.setDuration(log.getEnd().getTime() - existingLog.getStart().getTime());
+      }
+    }
+  }
+}
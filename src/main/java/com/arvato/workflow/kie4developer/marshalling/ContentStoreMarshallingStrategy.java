@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.kie.api.marshalling.ObjectMarshallingStrategy;
+
+/**
+ * Marshalling strategy for {@link ExternalizedVariable}s. Payloads of at least the size threshold are written to the
+ * content store and only the reference is kept in the process instance, smaller payloads are kept inline. On reading,
+ * stored payloads are not loaded until the variable is accessed, so loading the session, migrations and variable
+ * queries don't pay for them. Stored payloads are deleted by the {@link ExternalizedVariableListener} once the process
+ * instances using them completed. Payloads the listener did not store (e.g. work item parameters that are no process
+ * variables) are registered with a permanent owner and never deleted.
+ *
+ * @author TRIBE01
+ */
+public class ContentStoreMarshallingStrategy implements ObjectMarshallingStrategy {
+
+  static final String RETAINED_OWNER = "retained";
+
+  private final FileSystemContentStore contentStore;
+  private final int threshold;
+
+  /**
+   * Create the strategy, used by the deployment descriptor (resolver mvel)
+   *
+   * @param directory the directory of the content store
+   * @param threshold the payload size in bytes from which on the payload is stored in the content store
+   */
+  public ContentStoreMarshallingStrategy(String directory, int threshold) {
+    this.contentStore = new FileSystemContentStore(directory);
+    this.threshold = threshold;
+  }
+
+  @Override
+  public boolean accept(Object object) {
+    return object instanceof ExternalizedVariable;
+  }
+
+  @Override
+  public void write(ObjectOutputStream os, Object object) throws IOException {
+    byte[] data = marshal(null, os, object);
+    os.writeInt(data.length);
+    os.write(data);
+  }
+
+  @Override
+  public Object read(ObjectInputStream os) throws IOException, ClassNotFoundException {
+    byte[] data = new byte[os.readInt()];
+    os.readFully(data);
+    return unmarshal(null, os, data, Thread.currentThread().getContextClassLoader());
+  }
+
+  @Override
+  public byte[] marshal(Context context, ObjectOutputStream os, Object object) throws IOException {
+    ExternalizedVariable variable = (ExternalizedVariable) object;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    store(variable, contentStore, threshold, RETAINED_OWNER);
+    if (variable.getReference() != null) {
+      out.writeBoolean(true);
+      out.writeUTF(variable.getReference());
+    } else {
+      out.writeBoolean(false);
+      out.write(variable.getContent());
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public Object unmarshal(Context context, ObjectInputStream is, byte[] object, ClassLoader classloader)
+      throws IOException, ClassNotFoundException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(object));
+    if (in.readBoolean()) {
+      return ExternalizedVariable.stored(in.readUTF(), contentStore, classloader);
+    }
+    byte[] content = new byte[object.length - 1];
+    in.readFully(content);
+    return ExternalizedVariable.inline(content, classloader);
+  }
+
+  @Override
+  public Context createContext() {
+    return null;
+  }
+
+  /**
+   * Write the payload of a variable to the content store if it is not stored yet and reaches the size threshold
+   *
+   * @param variable     the variable
+   * @param contentStore the content store
+   * @param threshold    the payload size in bytes from which on the payload is stored in the content store
+   * @param owner        the owner registered with the stored payload
+   * @return <code>true</code> if the payload was stored
+   * @throws IOException if the payload could not be stored
+   */
+  static boolean store(ExternalizedVariable variable, FileSystemContentStore contentStore, int threshold,
+      String owner) throws IOException {
+    if (variable.getReference() == null && variable.getContent() != null
+        && variable.getContent().length >= threshold) {
+      variable.setReference(contentStore.store(variable.getContent(), owner));
+      return true;
+    }
+    return false;
+  }
+}
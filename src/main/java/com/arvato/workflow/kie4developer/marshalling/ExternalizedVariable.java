@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import org.drools.core.common.DroolsObjectInputStream;
+
+/**
+ * Process variable whose payload is kept in a content store once it exceeds the size threshold of the
+ * {@link ContentStoreMarshallingStrategy}. The process instance only holds the reference, the payload is loaded when
+ * {@link #load()} is called e.g. by the work item that actually reads it. The payload is immutable, to change it
+ * create a new variable.
+ * <pre>
+ * params.put("document", ExternalizedVariable.of(document));
+ * ...
+ * Document document = ((ExternalizedVariable) workItem.getParameter("document")).load();
+ * </pre>
+ *
+ * @author TRIBE01
+ */
+public class ExternalizedVariable implements Serializable {
+
+  private String reference; // content store reference, null until stored
+  private byte[] content; // serialized payload, null until loaded
+  private transient Object value;
+  private transient FileSystemContentStore contentStore;
+  private transient ClassLoader classLoader;
+
+  public ExternalizedVariable() {
+  }
+
+  /**
+   * Create a variable that still has to be stored
+   *
+   * @param value the payload
+   * @return the variable
+   */
+  public static ExternalizedVariable of(Serializable value) {
+    ExternalizedVariable variable = new ExternalizedVariable();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    variable.content = bytes.toByteArray();
+    variable.value = value;
+    return variable;
+  }
+
+  /**
+   * Create a variable that is already stored, the payload gets loaded on demand
+   *
+   * @param reference    the content store reference
+   * @param contentStore the content store
+   * @param classLoader  the classloader to deserialize the payload
+   * @return the variable
+   */
+  static ExternalizedVariable stored(String reference, FileSystemContentStore contentStore, ClassLoader classLoader) {
+    ExternalizedVariable variable = new ExternalizedVariable();
+    variable.reference = reference;
+    variable.contentStore = contentStore;
+    variable.classLoader = classLoader;
+    return variable;
+  }
+
+  /**
+   * Create a variable with the payload inline (below the size threshold)
+   *
+   * @param content     the serialized payload
+   * @param classLoader the classloader to deserialize the payload
+   * @return the variable
+   */
+  static ExternalizedVariable inline(byte[] content, ClassLoader classLoader) {
+    ExternalizedVariable variable = new ExternalizedVariable();
+    variable.content = content;
+    variable.classLoader = classLoader;
+    return variable;
+  }
+
+  /**
+   * Get the payload, loaded from the content store on first access
+   *
+   * @param <T> the type of the payload
+   * @return the payload
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T> T load() {
+    if (value == null) {
+      try {
+        if (content == null) {
+          if (contentStore == null) {
+            throw new IllegalStateException("No content store available to load " + reference);
+          }
+          content = contentStore.load(reference);
+        }
+        ClassLoader loader = classLoader != null ? classLoader : Thread.currentThread().getContextClassLoader();
+        try (DroolsObjectInputStream in = new DroolsObjectInputStream(new ByteArrayInputStream(content), loader)) {
+          value = in.readObject();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (ClassNotFoundException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return (T) value;
+  }
+
+  public String getReference() {
+    return reference;
+  }
+
+  public void setReference(String reference) {
+    this.reference = reference;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  public void setContent(byte[] content) {
+    this.content = content;
+  }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionManagerFactory;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.jbpm.process.core.context.variable.VariableScope;
+import org.jbpm.process.instance.context.variable.VariableScopeInstance;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.event.process.ProcessVariableChangedEvent;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process event listener that registers the variables of a process instance as owners of their stored
+ * {@link ExternalizedVariable} payloads. An owner is removed when the variable gets another value or the process
+ * instance completes (or is aborted), so the payload is deleted from the content store once no variable uses it.
+ * <p>
+ * The owner changes of an engine transaction are collected and applied after the transaction committed, changes of a
+ * rolled back transaction are dropped. Until the transaction completes, the transaction itself is registered as owner
+ * of the payloads it stores or references, so they can't be deleted concurrently.
+ *
+ * @author TRIBE01
+ */
+public class ExternalizedVariableListener extends DefaultProcessEventListener {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExternalizedVariableListener.class);
+  private final TransactionManager transactionManager;
+  private final FileSystemContentStore contentStore;
+  private final int threshold;
+
+  /**
+   * Create the listener, used by the deployment descriptor (resolver mvel)
+   *
+   * @param ksession  the session to listen to
+   * @param directory the directory of the content store
+   * @param threshold the payload size in bytes from which on the payload is stored in the content store
+   */
+  public ExternalizedVariableListener(KieSession ksession, String directory, int threshold) {
+    this(getTransactionManager(ksession), directory, threshold);
+  }
+
+  /**
+   * Create the listener
+   *
+   * @param transactionManager the transaction manager of the engine
+   * @param directory          the directory of the content store
+   * @param threshold          the payload size in bytes from which on the payload is stored in the content store
+   */
+  ExternalizedVariableListener(TransactionManager transactionManager, String directory, int threshold) {
+    this.transactionManager = transactionManager;
+    this.contentStore = new FileSystemContentStore(directory);
+    this.threshold = threshold;
+  }
+
+  @Override
+  public void afterProcessStarted(ProcessStartedEvent event) {
+    // the variables passed on start are set before the process instance fires variable events
+    ProcessInstance processInstance = event.getProcessInstance();
+    OwnerChanges changes = getChanges();
+    getVariables(processInstance).forEach((name, value) -> register(changes, processInstance.getId(), name, value));
+    applyOutsideTransaction(changes);
+  }
+
+  @Override
+  public void afterVariableChanged(ProcessVariableChangedEvent event) {
+    long processInstanceId = event.getProcessInstance().getId();
+    Object oldValue = event.getOldValue();
+    Object newValue = event.getNewValue();
+    OwnerChanges changes = getChanges();
+    register(changes, processInstanceId, event.getVariableId(), newValue);
+    if (oldValue instanceof ExternalizedVariable && oldValue != newValue) {
+      release(changes, processInstanceId, event.getVariableId(), (ExternalizedVariable) oldValue, newValue);
+    }
+    applyOutsideTransaction(changes);
+  }
+
+  @Override
+  public void afterProcessCompleted(ProcessCompletedEvent event) {
+    ProcessInstance processInstance = event.getProcessInstance();
+    OwnerChanges changes = getChanges();
+    getVariables(processInstance).forEach((name, value) -> {
+      if (value instanceof ExternalizedVariable) {
+        release(changes, processInstance.getId(), name, (ExternalizedVariable) value, null);
+      }
+    });
+    applyOutsideTransaction(changes);
+  }
+
+  /**
+   * Register a variable as owner of its stored payload, the payload gets stored if it reaches the size threshold
+   *
+   * @param changes           the owner changes of the transaction
+   * @param processInstanceId the process instance id
+   * @param name              the variable name
+   * @param value             the variable value
+   */
+  private void register(OwnerChanges changes, long processInstanceId, String name, Object value) {
+    if (!(value instanceof ExternalizedVariable)) {
+      return;
+    }
+    ExternalizedVariable variable = (ExternalizedVariable) value;
+    try {
+      if (!ContentStoreMarshallingStrategy.store(variable, contentStore, threshold, changes.transactionOwner)
+          && variable.getReference() != null) {
+        contentStore.addOwner(variable.getReference(), changes.transactionOwner);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (variable.getReference() != null) {
+      changes.add(variable.getReference(), owner(processInstanceId, name));
+    }
+  }
+
+  /**
+   * Remove a variable as owner of its stored payload
+   *
+   * @param changes           the owner changes of the transaction
+   * @param processInstanceId the process instance id
+   * @param name              the variable name
+   * @param variable          the previous variable value
+   * @param newValue          the new variable value, the payload is kept if it has the same reference
+   */
+  private void release(OwnerChanges changes, long processInstanceId, String name, ExternalizedVariable variable,
+      Object newValue) {
+    String reference = variable.getReference();
+    if (reference == null || newValue instanceof ExternalizedVariable
+        && reference.equals(((ExternalizedVariable) newValue).getReference())) {
+      return;
+    }
+    changes.remove(reference, owner(processInstanceId, name));
+  }
+
+  /**
+   * Get the owner changes of the current transaction. Without an active transaction the changes are applied at once.
+   *
+   * @return the owner changes
+   */
+  private OwnerChanges getChanges() {
+    if (transactionManager.getStatus() != TransactionManager.STATUS_ACTIVE) {
+      return new OwnerChanges(contentStore, false);
+    }
+    OwnerChanges changes = (OwnerChanges) transactionManager.getResource(this);
+    if (changes == null) {
+      changes = new OwnerChanges(contentStore, true);
+      transactionManager.putResource(this, changes);
+      transactionManager.registerTransactionSynchronization(changes);
+    }
+    return changes;
+  }
+
+  /**
+   * Apply owner changes collected without an active transaction
+   *
+   * @param changes the owner changes
+   */
+  private static void applyOutsideTransaction(OwnerChanges changes) {
+    if (!changes.transactional) {
+      changes.afterCompletion(TransactionManager.STATUS_COMMITTED);
+    }
+  }
+
+  /**
+   * Get the owner of a stored payload
+   *
+   * @param processInstanceId the process instance id
+   * @param name              the variable name
+   * @return the owner
+   */
+  private static String owner(long processInstanceId, String name) {
+    return processInstanceId + "-" + name;
+  }
+
+  /**
+   * Get the variables of a process instance
+   *
+   * @param processInstance the process instance
+   * @return the variables by name
+   */
+  private static Map<String, Object> getVariables(ProcessInstance processInstance) {
+    VariableScopeInstance variableScope = (VariableScopeInstance)
+        ((org.jbpm.process.instance.ProcessInstance) processInstance).getContextInstance(VariableScope.VARIABLE_SCOPE);
+    return variableScope != null ? variableScope.getVariables() : Collections.emptyMap();
+  }
+
+  /**
+   * Get the transaction manager of the session
+   *
+   * @param ksession the session
+   * @return the transaction manager
+   */
+  private static TransactionManager getTransactionManager(KieSession ksession) {
+    TransactionManager transactionManager = (TransactionManager) ksession.getEnvironment()
+        .get(EnvironmentName.TRANSACTION_MANAGER);
+    return transactionManager != null ? transactionManager : TransactionManagerFactory.get().newTransactionManager();
+  }
+
+  /**
+   * The owner changes of a transaction, applied after the transaction committed
+   */
+  private static class OwnerChanges implements TransactionSynchronization {
+
+    private final FileSystemContentStore contentStore;
+    private final boolean transactional;
+    private final String transactionOwner = "tx-" + UUID.randomUUID();
+    private final Set<String> protectedReferences = new LinkedHashSet<>();
+    private final List<OwnerChange> changes = new ArrayList<>();
+
+    OwnerChanges(FileSystemContentStore contentStore, boolean transactional) {
+      this.contentStore = contentStore;
+      this.transactional = transactional;
+    }
+
+    void add(String reference, String owner) {
+      protectedReferences.add(reference);
+      changes.add(new OwnerChange(reference, owner, true));
+    }
+
+    void remove(String reference, String owner) {
+      changes.add(new OwnerChange(reference, owner, false));
+    }
+
+    @Override
+    public void beforeCompletion() {
+      // nothing to do, the changes are applied after the commit
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      if (status == TransactionManager.STATUS_COMMITTED) {
+        for (OwnerChange change : changes) {
+          try {
+            if (change.add) {
+              contentStore.addOwner(change.reference, change.owner);
+            } else if (contentStore.removeOwner(change.reference, change.owner)) {
+              LOGGER.debug("Stored payload {} of {} deleted", change.reference, change.owner);
+            }
+          } catch (IOException e) {
+            // the process instance is not affected, the payload just remains in the content store
+            LOGGER.warn("Error while changing owner {} of stored payload {}", change.owner, change.reference, e);
+          }
+        }
+      }
+      // the payloads stored by a rolled back transaction are deleted unless used by others
+      for (String reference : protectedReferences) {
+        try {
+          contentStore.removeOwner(reference, transactionOwner);
+        } catch (IOException e) {
+          LOGGER.warn("Error while releasing stored payload {}", reference, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * An owner added to or removed from a stored payload
+   */
+  private static class OwnerChange {
+
+    private final String reference;
+    private final String owner;
+    private final boolean add;
+
+    OwnerChange(String reference, String owner, boolean add) {
+      this.reference = reference;
+      this.owner = owner;
+      this.add = add;
+    }
+  }
+}
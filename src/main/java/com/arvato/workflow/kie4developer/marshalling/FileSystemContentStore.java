@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.stream.Stream;
+
+/**
+ * Content store for externalized process variables within a directory. The content is addressed by its SHA-1 hash,
+ * so equal payloads are stored once and stored content never changes. As content can be shared, the owners of stored
+ * content (the variables of process instances) are registered next to it, the content is deleted when its last
+ * registered owner is removed. Content without registered owners is never deleted.
+ * <p>
+ * Storing, adding and removing owners of a content hold a lock of its subdirectory: a file lock, so the directory can
+ * be shared by the nodes of a cluster (the file system has to support file locks, e.g. NFSv4), and a lock of the JVM
+ * as file locks are held per JVM.
+ *
+ * @author TRIBE01
+ */
+public class FileSystemContentStore {
+
+  private final Path directory;
+
+  /**
+   * Create the content store
+   *
+   * @param directory the directory to store the content in, created on demand
+   */
+  public FileSystemContentStore(String directory) {
+    this.directory = Paths.get(directory);
+  }
+
+  /**
+   * Store content if it is not stored yet and register an owner, so the content can't be deleted concurrently
+   *
+   * @param content the content
+   * @param owner   the owner, e.g. process instance id and variable name
+   * @return the reference to load the content
+   * @throws IOException if the content could not be written
+   */
+  public String store(byte[] content, String owner) throws IOException {
+    String reference = hash(content);
+    Path file = resolve(reference);
+    locked(reference, () -> {
+      if (!Files.exists(file)) {
+        // write to a temporary file first, so a concurrent reader never sees partial content
+        Path tempFile = Files.createTempFile(file.getParent(), reference, ".tmp");
+        try {
+          Files.write(tempFile, content);
+          Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+          // stored concurrently with the same content
+        } finally {
+          Files.deleteIfExists(tempFile);
+        }
+      }
+      createOwner(reference, owner);
+      return null;
+    });
+    return reference;
+  }
+
+  /**
+   * Load content
+   *
+   * @param reference the reference of the content
+   * @return the content
+   * @throws IOException if the content could not be read
+   */
+  public byte[] load(String reference) throws IOException {
+    return Files.readAllBytes(resolve(reference));
+  }
+
+  /**
+   * Register an owner of stored content
+   *
+   * @param reference the reference of the content
+   * @param owner     the owner, e.g. process instance id and variable name
+   * @throws IOException if the owner could not be registered, e.g. the content does not exist (anymore)
+   */
+  public void addOwner(String reference, String owner) throws IOException {
+    locked(reference, () -> {
+      if (!Files.exists(resolve(reference))) {
+        throw new NoSuchFileException(resolve(reference).toString());
+      }
+      createOwner(reference, owner);
+      return null;
+    });
+  }
+
+  /**
+   * Remove an owner of stored content, the content is deleted if no registered owner is left
+   *
+   * @param reference the reference of the content
+   * @param owner     the owner, e.g. process instance id and variable name
+   * @return <code>true</code> if the content was deleted
+   * @throws IOException if the owner or the content could not be removed
+   */
+  public boolean removeOwner(String reference, String owner) throws IOException {
+    return locked(reference, () -> {
+      Path owners = resolveOwners(reference);
+      if (!Files.deleteIfExists(owners.resolve(encode(owner)))) {
+        return false;
+      }
+      try (Stream<Path> remainingOwners = Files.list(owners)) {
+        if (remainingOwners.findAny().isPresent()) {
+          return false;
+        }
+      } catch (NoSuchFileException e) {
+        return false;
+      }
+      Files.deleteIfExists(owners);
+      return Files.deleteIfExists(resolve(reference));
+    });
+  }
+
+  /**
+   * Create the file of an owner, the caller holds the lock
+   *
+   * @param reference the reference of the content
+   * @param owner     the owner
+   * @throws IOException if the file could not be created
+   */
+  private void createOwner(String reference, String owner) throws IOException {
+    Path owners = resolveOwners(reference);
+    Files.createDirectories(owners);
+    Path ownerFile = owners.resolve(encode(owner));
+    if (!Files.exists(ownerFile)) {
+      Files.createFile(ownerFile);
+    }
+  }
+
+  /**
+   * Run an action holding the lock of the subdirectory of the content
+   *
+   * @param reference the reference of the content
+   * @param action    the action
+   * @param <T>       the type of the result
+   * @return the result of the action
+   * @throws IOException if the lock could not be acquired or the action failed
+   */
+  private <T> T locked(String reference, LockedAction<T> action) throws IOException {
+    Path lockFile = resolve(reference).resolveSibling(".lock");
+    Files.createDirectories(lockFile.getParent());
+    // the interned path is the same lock for all deployments (classloaders) of the JVM using the directory
+    synchronized (lockFile.toAbsolutePath().normalize().toString().intern()) {
+      try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+          FileLock lock = channel.lock()) {
+        return action.run();
+      }
+    }
+  }
+
+  /**
+   * Action on the content store that holds the lock
+   *
+   * @param <T> the type of the result
+   */
+  @FunctionalInterface
+  private interface LockedAction<T> {
+
+    T run() throws IOException;
+  }
+
+  /**
+   * Get the directory of the owners of the content
+   *
+   * @param reference the reference of the content
+   * @return the directory
+   */
+  private Path resolveOwners(String reference) {
+    Path file = resolve(reference);
+    return file.resolveSibling(file.getFileName() + ".owners");
+  }
+
+  /**
+   * Encode an owner as file name
+   *
+   * @param owner the owner
+   * @return the file name
+   */
+  private static String encode(String owner) {
+    try {
+      return URLEncoder.encode(owner, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Get the file of the content, split in subdirectories by the first two characters of the hash
+   *
+   * @param reference the reference of the content
+   * @return the file
+   */
+  private Path resolve(String reference) {
+    if (!reference.matches("[0-9a-f]{40}")) {
+      throw new IllegalArgumentException("Invalid content reference " + reference);
+    }
+    return directory.resolve(reference.substring(0, 2)).resolve(reference);
+  }
+
+  /**
+   * Create the SHA-1 hash of the content
+   *
+   * @param content the content
+   * @return the hash as hex string
+   */
+  private static String hash(byte[] content) {
+    try {
+      StringBuilder hash = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-1").digest(content)) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonIdentityInfo;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.ObjectIdGenerators;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectMapper.DefaultTyping;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.kie.api.marshalling.ObjectMarshallingStrategy;
+
+/**
+ * Marshalling strategy that stores process variables as compact JSON instead of java serialization. Only classes
+ * within the configured package (the serializable classes of the release) are accepted, all other variables (and the
+ * classes of kie4developer itself) are left to the next strategy. The fields of the classes are marshalled (like java
+ * serialization, transient fields are skipped), so the classes need a default constructor. To restore the object graph
+ * like java serialization does, values of non-final types (e.g. <code>Object</code>, interface, abstract class or
+ * collection fields) carry their class name and objects referenced more than once (including cycles) are written once
+ * and referenced by id. Unknown fields are ignored on reading, so fields can be added to or removed from a class without
+ * breaking persisted process instances.
+ *
+ * @author TRIBE01
+ */
+public class JsonMarshallingStrategy implements ObjectMarshallingStrategy {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .setVisibility(PropertyAccessor.ALL, Visibility.NONE)
+      .setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+      .enableDefaultTyping(DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY)
+      .addMixIn(Object.class, IdentityMixIn.class)
+      .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+  // the classes of kie4developer, e.g. com.arvato.workflow.kie4developer.
+  private static final String LIBRARY_PREFIX = JsonMarshallingStrategy.class.getName()
+      .substring(0, JsonMarshallingStrategy.class.getName().lastIndexOf(".marshalling.") + 1);
+  private final String packagePrefix;
+  private final Map<String, Class<?>> types = new ConcurrentHashMap<>(); // type registry: class name -> class
+  private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>(); // class -> reader
+
+  /**
+   * Create the strategy, used by the deployment descriptor (resolver mvel)
+   *
+   * @param packageName the package of the classes to marshal as JSON
+   */
+  public JsonMarshallingStrategy(String packageName) {
+    this.packagePrefix = packageName + ".";
+  }
+
+  @Override
+  public boolean accept(Object object) {
+    if (object == null || object.getClass().isEnum()) {
+      return false;
+    }
+    String className = object.getClass().getName();
+    // the classes of kie4developer are only accepted if the configured package is within kie4developer
+    return className.startsWith(packagePrefix)
+        && (!className.startsWith(LIBRARY_PREFIX) || packagePrefix.startsWith(LIBRARY_PREFIX));
+  }
+
+  @Override
+  public void write(ObjectOutputStream os, Object object) throws IOException {
+    byte[] data = marshal(null, os, object);
+    os.writeInt(data.length);
+    os.write(data);
+  }
+
+  @Override
+  public Object read(ObjectInputStream os) throws IOException, ClassNotFoundException {
+    byte[] data = new byte[os.readInt()];
+    os.readFully(data);
+    return unmarshal(null, os, data, Thread.currentThread().getContextClassLoader());
+  }
+
+  @Override
+  public byte[] marshal(Context context, ObjectOutputStream os, Object object) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new DataOutputStream(bytes).writeUTF(object.getClass().getName());
+    MAPPER.writeValue(bytes, object);
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public Object unmarshal(Context context, ObjectInputStream is, byte[] object, ClassLoader classloader)
+      throws IOException, ClassNotFoundException {
+    ByteArrayInputStream bytes = new ByteArrayInputStream(object);
+    Class<?> type = resolve(new DataInputStream(bytes).readUTF(), classloader);
+    // the class names of polymorphic values are resolved by the classloader of the deployment as well
+    ObjectReader reader = readers.computeIfAbsent(type, clazz -> MAPPER.readerFor(clazz)
+        .with(MAPPER.getTypeFactory().withClassLoader(clazz.getClassLoader())));
+    return reader.readValue(bytes);
+  }
+
+  @Override
+  public Context createContext() {
+    return null;
+  }
+
+  /**
+   * Resolve a class from the type registry
+   *
+   * @param className   the class name
+   * @param classloader the classloader of the deployment
+   * @return the class
+   * @throws ClassNotFoundException if the class is unknown
+   */
+  private Class<?> resolve(String className, ClassLoader classloader) throws ClassNotFoundException {
+    Class<?> type = types.get(className);
+    if (type == null) {
+      type = Class.forName(className, true, classloader != null ? classloader : getClass().getClassLoader());
+      types.put(className, type);
+    }
+    return type;
+  }
+
+  /**
+   * Mix-in for all classes: every object gets an id, so objects referenced more than once are written once
+   */
+  @JsonIdentityInfo(generator = ObjectIdGenerators.IntSequenceGenerator.class, property = "@id")
+  private abstract static class IdentityMixIn {
+
+  }
+}
@@ -16,13 +16,35 @@
 package com.arvato.workflow.kie4developer.workitemhandler;
 
 import com.arvato.workflow.kie4developer.common.interfaces.IDeployableWorkItemHandler;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.persistence.EntityManagerFactory;
+import org.jbpm.executor.ExecutorServiceFactory;
+import org.jbpm.workflow.instance.WorkflowProcessInstance;
+import org.jbpm.workflow.instance.node.WorkItemNodeInstance;
+import org.kie.api.executor.Command;
+import org.kie.api.executor.CommandContext;
+import org.kie.api.executor.ExecutionResults;
+import org.kie.api.executor.ExecutorService;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeManager;
 import org.kie.api.runtime.process.ProcessWorkItemHandlerException;
 import org.kie.api.runtime.process.ProcessWorkItemHandlerException.HandlingStrategy;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.manager.InternalRuntimeManager;
+import org.kie.internal.runtime.manager.RuntimeManagerRegistry;
+import org.kie.internal.runtime.manager.context.ProcessInstanceIdContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,9 +60,14 @@ import org.slf4j.LoggerFactory;
 public class JavaWorkItemHandler implements IDeployableWorkItemHandler {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(JavaWorkItemHandler.class);
+  private static final Map<String, Invoker> INVOKERS = new ConcurrentHashMap<>(); // [class#method#parameter type:invoker]
   private final String VERSION = "1.0.0";
-  private int retries = 0;
+  private static final Map<Long, Integer> RETRIES = new ConcurrentHashMap<>(); // [workitem id:executed retries]
   private final int MAX_RETRIES = (System.getProperty("spring.application.retries") == null ? 0 : Integer.parseInt(System.getProperty("spring.application.retries")));
+  private final long RETRY_DELAY = Long.parseLong(System.getProperty("spring.application.retries.delay", "660000"));
+  private final double RETRY_MULTIPLIER = Double.parseDouble(System.getProperty("spring.application.retries.multiplier", "11"));
+  private final boolean ASYNC_RETRIES = Boolean.parseBoolean(System.getProperty("spring.application.retries.async", "false"));
+  private final InstanceScope SCOPE = InstanceScope.valueOf(System.getProperty("spring.application.workitemhandler.scope", InstanceScope.SPRING.name())); // fails on handler creation, not per work item
 
   @Override
   public String getVersion() {
@@ -65,26 +92,15 @@ public class JavaWorkItemHandler implements IDeployableWorkItemHandler {
     }
 
     try {
-      Class<?> c = Class.forName(className);
-      Object instance = null;
-      if (System.getProperties().containsKey("kieserver.location") && System.getProperty("kieserver.location").contains("localhost")) {
-        try {
-          instance = SpringContext.getBean(c); // try to load using spring dependency injection
-        } catch (Exception e) {
-          // ignore - fallback using java reflection below
-        }
-      }
-      if (instance == null) {
-        instance = c.getConstructor().newInstance(); // try to load using java reflection
+      String invokerParameterType = parameter != null ? parameterType : null;
+      String invokerKey = className + "#" + methodName + "#" + invokerParameterType;
+      Invoker invoker = INVOKERS.get(invokerKey);
+      if (invoker == null) {
+        invoker = Invoker.create(className, methodName, invokerParameterType, SCOPE);
+        Invoker existingInvoker = INVOKERS.putIfAbsent(invokerKey, invoker);
+        invoker = existingInvoker != null ? existingInvoker : invoker;
       }
-      Class<?>[] methodParameterTypes = null;
-      Object[] params = null;
-      if (parameter != null && parameterType != null) {
-        methodParameterTypes = new Class<?>[]{Class.forName(parameterType)};
-        params = new Object[]{parameter};
-      }
-      Method method = c.getMethod(methodName, methodParameterTypes);
-      Object result = method.invoke(instance, params);
+      Object result = invoker.invoke(parameter);
       castedResult = (Map<String, Object>) result;
 
       if (LOGGER.isDebugEnabled()) {
@@ -107,8 +123,10 @@ public class JavaWorkItemHandler implements IDeployableWorkItemHandler {
       String shortErrorMsg = String.format("%s#%s", className, methodName);
       Exception shortError = new InvocationTargetException(detailError, shortErrorMsg);
       handleException(workItem, manager, shortError, errorHandingProcessId);
+      return; // the work item gets completed by the retry
     }
 
+    RETRIES.remove(workItem.getId());
     manager.completeWorkItem(workItem.getId(), castedResult);
   }
 
@@ -119,7 +137,9 @@ public class JavaWorkItemHandler implements IDeployableWorkItemHandler {
   }
 
   /**
-   * Handle execution errors
+   * Handle execution errors. Failed executions are retried with an exponential backoff. In async mode the retry gets
+   * scheduled as job of the jBPM executor and the engine thread is released immediately, otherwise the engine thread
+   * waits for the retry.
    *
    * @param workItem              the workItem reference
    * @param manager               the manager reference
@@ -129,20 +149,150 @@ public class JavaWorkItemHandler implements IDeployableWorkItemHandler {
    */
   public void handleException(WorkItem workItem, WorkItemManager manager,
       Throwable cause, String errorHandingProcessId) {
+    int retries = RETRIES.getOrDefault(workItem.getId(), 0);
     if (retries < MAX_RETRIES) {
+      // increase time on every retry e.g. 11min, 121min, 1331min ...
+      long delay = (long) (RETRY_DELAY * Math.pow(RETRY_MULTIPLIER, retries));
+      RETRIES.put(workItem.getId(), ++retries);
+      if (ASYNC_RETRIES) {
+        LOGGER.info("Scheduling retry execution #{}/{} in {}ms.", retries, MAX_RETRIES, delay);
+        if (scheduleRetry(workItem, retries, delay)) {
+          RETRIES.remove(workItem.getId()); // the retry count is kept by the executor job
+          return;
+        }
+        LOGGER.warn("No jBPM executor available, retrying synchronously.");
+      }
       try {
-        // increase time on every retry: 11min, 121min, 1331min ...
-        Thread.sleep(Double.doubleToLongBits(Math.pow(11, retries)) * 60 * 1000);
+        Thread.sleep(delay);
       } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
-      retries++;
       LOGGER.info("Retry execution #{}/{}.", retries, MAX_RETRIES);
       executeWorkItem(workItem, manager);
-    } else if (errorHandingProcessId != null) {
-      LOGGER.info("Starting error handling subprocess {}.", errorHandingProcessId);
-      throw new ProcessWorkItemHandlerException(errorHandingProcessId, HandlingStrategy.COMPLETE, cause); // error gets handled by separate error handling subprocesses
     } else {
-      throw new RuntimeException(cause);
+      RETRIES.remove(workItem.getId());
+      if (errorHandingProcessId != null) {
+        LOGGER.info("Starting error handling subprocess {}.", errorHandingProcessId);
+        throw new ProcessWorkItemHandlerException(errorHandingProcessId, HandlingStrategy.COMPLETE, cause); // error gets handled by separate error handling subprocesses
+      } else {
+        throw new RuntimeException(cause);
+      }
+    }
+  }
+
+  /**
+   * Schedule the retry of a work item as job of the jBPM executor. The job is persisted, so scheduled retries survive a
+   * server restart.
+   *
+   * @param workItem the workItem reference
+   * @param retries  the count of executed retries including the scheduled one
+   * @param delay    the delay in milliseconds
+   * @return <code>true</code> if the retry was scheduled, <code>false</code> if no executor is available
+   */
+  private boolean scheduleRetry(WorkItem workItem, int retries, long delay) {
+    String deploymentId = ((org.drools.core.process.instance.WorkItem) workItem).getDeploymentId();
+    RuntimeManager runtimeManager = RuntimeManagerRegistry.get().getManager(deploymentId);
+    if (!(runtimeManager instanceof InternalRuntimeManager)) {
+      return false;
+    }
+    EntityManagerFactory emf = (EntityManagerFactory) ((InternalRuntimeManager) runtimeManager).getEnvironment()
+        .getEnvironment().get(EnvironmentName.ENTITY_MANAGER_FACTORY);
+    if (emf == null) {
+      return false;
+    }
+    ExecutorService executorService = ExecutorServiceFactory.newExecutorService(emf);
+    if (executorService == null || !executorService.isActive()) {
+      return false;
+    }
+    CommandContext ctx = new CommandContext();
+    ctx.setData("deploymentId", deploymentId); // the executor loads the command with the classloader of the deployment
+    ctx.setData("processInstanceId", workItem.getProcessInstanceId());
+    ctx.setData("workItemId", workItem.getId());
+    ctx.setData(RetryCommand.RETRIES, retries);
+    ctx.setData("retries", 0); // the retries are handled by the work item handler, not by the executor
+    ctx.setData("businessKey", "JavaWorkItemHandler-retry-" + workItem.getId() + "-" + retries);
+    executorService.scheduleRequest(RetryCommand.class.getName(), new Date(System.currentTimeMillis() + delay), ctx);
+    return true;
+  }
+
+  /**
+   * Executor job that retries a work item within a runtime engine of the process instance, so the work item gets
+   * completed on the current state of the process instance. If the retries are exhausted the exception is handled by
+   * the work item node instance like the engine does on a synchronous execution: the error handling subprocess is
+   * started as child of the process instance and the work item gets completed when the subprocess completes. Without
+   * error handling subprocess the job fails and the work item remains active, so it can be retriggered.
+   */
+  public static class RetryCommand implements Command {
+
+    static final String RETRIES = "JavaWorkItemHandler.retries";
+
+    @Override
+    public ExecutionResults execute(CommandContext ctx) {
+      String deploymentId = (String) ctx.getData("deploymentId");
+      Long processInstanceId = (Long) ctx.getData("processInstanceId");
+      Long workItemId = (Long) ctx.getData("workItemId");
+      RuntimeManager runtimeManager = RuntimeManagerRegistry.get().getManager(deploymentId);
+      if (runtimeManager == null) {
+        throw new IllegalStateException(String.format("Retry of work item %s failed, deployment %s not available.",
+            workItemId, deploymentId));
+      }
+      RuntimeEngine runtimeEngine = runtimeManager.getRuntimeEngine(ProcessInstanceIdContext.get(processInstanceId));
+      try {
+        KieSession kieSession = runtimeEngine.getKieSession();
+        WorkItemManager manager = kieSession.getWorkItemManager();
+        WorkItem workItem = ((org.drools.core.process.instance.WorkItemManager) manager).getWorkItem(workItemId);
+        if (workItem == null) {
+          LOGGER.info("Retry of work item {} skipped, the work item is not active anymore.", workItemId);
+          return new ExecutionResults();
+        }
+        RETRIES.put(workItemId, (Integer) ctx.getData(RETRIES));
+        try {
+          new JavaWorkItemHandler().executeWorkItem(workItem, manager);
+        } catch (ProcessWorkItemHandlerException e) {
+          handleByNodeInstance(kieSession, processInstanceId, workItem, e);
+        }
+        return new ExecutionResults();
+      } finally {
+        runtimeManager.disposeRuntimeEngine(runtimeEngine);
+      }
+    }
+
+    /**
+     * Hand over the exception to the work item node instance, which handles it within a synchronous execution
+     *
+     * @param kieSession        the session of the process instance
+     * @param processInstanceId the process instance id
+     * @param workItem          the work item
+     * @param exception         the exception with the error handling subprocess and strategy
+     */
+    private static void handleByNodeInstance(KieSession kieSession, long processInstanceId, WorkItem workItem,
+        ProcessWorkItemHandlerException exception) {
+      WorkflowProcessInstance processInstance = (WorkflowProcessInstance) kieSession
+          .getProcessInstance(processInstanceId);
+      WorkItemNodeInstance nodeInstance = processInstance == null ? null : processInstance.getNodeInstances(true)
+          .stream()
+          .filter(ni -> ni instanceof WorkItemNodeInstance
+              && ((WorkItemNodeInstance) ni).getWorkItemId() == workItem.getId())
+          .map(ni -> (WorkItemNodeInstance) ni)
+          .findFirst().orElse(null);
+      if (nodeInstance == null) {
+        throw new IllegalStateException(
+            String.format("Error handling of work item %s failed, node instance not found.", workItem.getId()),
+            exception);
+      }
+      try {
+        // the handling of the engine is not public API, it is invoked like WorkItemNodeInstance does on execution
+        Method handle = WorkItemNodeInstance.class.getDeclaredMethod("handleWorkItemHandlerException",
+            ProcessWorkItemHandlerException.class, WorkItem.class);
+        handle.setAccessible(true);
+        handle.invoke(nodeInstance, exception, workItem);
+      } catch (InvocationTargetException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+            : new IllegalStateException(e.getCause());
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException(
+            String.format("Error handling of work item %s failed, not supported by the engine.", workItem.getId()), e);
+      }
     }
   }
 
@@ -162,4 +312,134 @@ public class JavaWorkItemHandler implements IDeployableWorkItemHandler {
     return parameterValue;
   }
 
+  /**
+   * The scope of the instances the methods get invoked on
+   */
+  public enum InstanceScope {
+    /**
+     * Use the Spring bean when running on the embedded KIE Server, otherwise create a new instance per invocation
+     */
+    SPRING,
+    /**
+     * Create one instance per class and reuse it for all invocations
+     */
+    SINGLETON,
+    /**
+     * Create a new instance per invocation
+     */
+    PROTOTYPE
+  }
+
+  /**
+   * Resolved invocation of a method. Class, constructor and method are looked up once, so invocations do not require
+   * any reflective lookup.
+   */
+  static final class Invoker {
+
+    private final Class<?> targetClass;
+    private final MethodHandle constructor; // ()Object
+    private final MethodHandle method; // (Object)Object or (Object,Object)Object
+    private final boolean withParameter;
+    private final InstanceScope scope;
+    private volatile Object singleton;
+
+    private Invoker(Class<?> targetClass, MethodHandle constructor, MethodHandle method, boolean withParameter,
+        InstanceScope scope) {
+      this.targetClass = targetClass;
+      this.constructor = constructor;
+      this.method = method;
+      this.withParameter = withParameter;
+      this.scope = scope;
+    }
+
+    /**
+     * Resolve the invocation of a method
+     *
+     * @param className     the class name
+     * @param methodName    the method name
+     * @param parameterType the parameter type or <code>null</code> for methods without parameter
+     * @param scope         the scope of the instances the method gets invoked on
+     * @return the invoker
+     * @throws ReflectiveOperationException if the class, the default constructor or the method could not be found
+     */
+    static Invoker create(String className, String methodName, String parameterType, InstanceScope scope)
+        throws ReflectiveOperationException {
+      Class<?> c = Class.forName(className);
+      Class<?>[] methodParameterTypes = parameterType != null ? new Class<?>[]{Class.forName(parameterType)} : null;
+      Method m = c.getMethod(methodName, methodParameterTypes);
+      Lookup lookup = MethodHandles.publicLookup();
+      MethodHandle methodHandle = lookup.unreflect(m);
+      if (Modifier.isStatic(m.getModifiers())) {
+        methodHandle = MethodHandles.dropArguments(methodHandle, 0, Object.class);
+      }
+      methodHandle = methodHandle.asType(MethodType.genericMethodType(parameterType != null ? 2 : 1));
+      MethodHandle constructorHandle = null;
+      try {
+        constructorHandle = lookup.findConstructor(c, MethodType.methodType(void.class))
+            .asType(MethodType.genericMethodType(0));
+      } catch (NoSuchMethodException e) {
+        // instances can only be provided by spring
+      }
+      return new Invoker(c, constructorHandle, methodHandle, parameterType != null, scope);
+    }
+
+    /**
+     * Invoke the method
+     *
+     * @param parameter the method parameter (ignored for methods without parameter)
+     * @return the method result
+     * @throws ReflectiveOperationException if the instance could not be created or the invoked method throws an
+     *                                      exception (wrapped in an {@link InvocationTargetException})
+     */
+    Object invoke(Object parameter) throws ReflectiveOperationException {
+      Object instance = getInstance();
+      try {
+        return withParameter ? (Object) method.invokeExact(instance, parameter) : (Object) method.invokeExact(instance);
+      } catch (Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+    /**
+     * Get the instance to invoke the method on according to the instance scope
+     *
+     * @return the instance
+     * @throws ReflectiveOperationException if the instance could not be created
+     */
+    private Object getInstance() throws ReflectiveOperationException {
+      if (scope == InstanceScope.SINGLETON) {
+        Object instance = singleton;
+        if (instance == null) {
+          synchronized (this) {
+            if (singleton == null) {
+              singleton = newInstance(true);
+            }
+            instance = singleton;
+          }
+        }
+        return instance;
+      }
+      return newInstance(scope == InstanceScope.SPRING);
+    }
+
+    private Object newInstance(boolean trySpring) throws ReflectiveOperationException {
+      if (trySpring && System.getProperties().containsKey("kieserver.location") && System.getProperty("kieserver.location").contains("localhost")) {
+        try {
+          return SpringContext.getBean(targetClass); // try to load using spring dependency injection
+        } catch (Exception e) {
+          // ignore - fallback using the default constructor below
+        }
+      }
+      if (constructor == null) {
+        throw new NoSuchMethodException(targetClass.getName() + ".<init>()");
+      }
+      try {
+        return (Object) constructor.invokeExact();
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+  }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.basic;
+
+import com.arvato.workflow.kie4developer.AbstractProcessTest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kie.api.KieServices;
+import org.kie.server.api.model.KieContainerResource;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.api.model.ReleaseId;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Tests the deployment of the kmodule in memory to the embedded KIE Server
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+        "spring.application.autodeploy=false",
+        "spring.application.deploy.inmemory=true",
+        "spring.application.kjar.cache.enabled=true",
+        "global.test=Bonjour"
+    })
+public class ProcessInMemoryTest extends AbstractProcessTest {
+
+  @Before
+  public void prepare() {
+    // prepare release
+    clientDeploymentHelper.setProcessesToDeploy(Collections.singletonList(HelloWorldProcess.class));
+    clientDeploymentHelper.setWorkItemHandlersToDeploy(Collections.singletonList(HelloWorldWorkItemHandler.class));
+    clientDeploymentHelper.setDependenciesToDeploy(new ArrayList<>());
+  }
+
+  @After
+  public void dispose() {
+    clientDeploymentHelper.undeploy(true);
+  }
+
+  @Test
+  public void testInMemoryDeployment() {
+    String containerId = clientDeploymentHelper.getRelease().getContainerId();
+    ReleaseId releaseId = clientDeploymentHelper.getRelease().getReleaseIdForServerAPI();
+
+    // deploy release twice, the second deployment uses the cached kmodule
+    Assert.assertTrue("Deployment failed", clientDeploymentHelper.deploy(true));
+    Assert.assertTrue("Redeployment failed", clientDeploymentHelper.deploy(true));
+
+    // verify that the kmodule was registered in memory
+    Assert.assertNotNull("Kmodule was not registered", KieServices.Factory.get().getRepository()
+        .getKieModule(KieServices.Factory.get()
+            .newReleaseId(releaseId.getGroupId(), releaseId.getArtifactId(), releaseId.getVersion())));
+
+    // verify that the release container is running
+    KieContainerResource container = getContainer(containerId);
+    Assert.assertEquals("Container was not started", KieContainerStatus.STARTED, container.getStatus());
+
+    // execute the process
+    Map<String, Object> params = new HashMap<>();
+    params.put("employee", "john");
+    params.put("reason", "test on spring boot");
+    Long processInstanceId = clientExecutionHelper
+        .startNewProcessInstance(containerId, new HelloWorldProcess().getProcessId(), params);
+    Assert.assertNotNull("Process was not executed", processInstanceId);
+
+    Map<String, Object> variables = getProcessInstanceVariables(processInstanceId);
+    Assert.assertEquals("variable replacement failed", "Ola Bonjour", variables.get("myvar"));
+  }
+}
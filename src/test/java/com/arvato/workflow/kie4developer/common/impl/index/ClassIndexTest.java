@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.index;
+
+import com.arvato.workflow.kie4developer.common.interfaces.IDeployableWorkItemHandler;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the class index written by the {@link ClassIndexProcessor} and the lookup of indexed and not indexed classes
+ */
+public class ClassIndexTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  private Path indexedClasses;
+  private Path unindexedClasses;
+
+  @Before
+  public void compile() throws IOException {
+    indexedClasses = temporaryFolder.newFolder("indexed").toPath();
+    unindexedClasses = temporaryFolder.newFolder("unindexed").toPath();
+    compile(indexedClasses, true, "indexed.Variable",
+        "package indexed; public class Variable implements java.io.Serializable { public static class Nested implements java.io.Serializable {} }");
+    compile(indexedClasses, true, "indexed.Handler",
+        "package indexed; public abstract class Handler extends " + TestWorkItemHandler.class.getName().replace('$', '.') + " {}");
+    compile(unindexedClasses, false, "unindexed.Variable",
+        "package unindexed; public class Variable implements java.io.Serializable {}");
+  }
+
+  @Test
+  public void testProcessorWritesIndex() throws IOException {
+    Path indexFile = indexedClasses.resolve(ClassIndex.INDEX_RESOURCE);
+    Assert.assertTrue("Class index not written", Files.exists(indexFile));
+    List<String> entries = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+    Assert.assertTrue(entries.contains("serializable:indexed.Variable"));
+    Assert.assertTrue(entries.contains("serializable:indexed.Variable$Nested"));
+    Assert.assertTrue(entries.contains("workitemhandler:indexed.Handler"));
+    Assert.assertTrue(entries.contains("type:indexed.Handler"));
+    Assert.assertFalse(entries.contains("serializable:indexed.Handler"));
+    Assert.assertFalse(Files.exists(unindexedClasses.resolve(ClassIndex.INDEX_RESOURCE)));
+  }
+
+  @Test
+  public void testLookupMergesIndexedAndUnindexedClasses() throws IOException {
+    try (URLClassLoader classLoader = new URLClassLoader(
+        new URL[]{indexedClasses.toUri().toURL(), unindexedClasses.toUri().toURL()}, getClass().getClassLoader())) {
+      ClassIndex classIndex = new ClassIndex(classLoader);
+
+      Assert.assertEquals(new HashSet<>(Arrays.asList("indexed.Variable", "indexed.Variable$Nested")),
+          names(classIndex.getSubTypesOf("indexed", Serializable.class)));
+      Assert.assertEquals(Collections.singleton("indexed.Handler"),
+          names(classIndex.getSubTypesOf("indexed", IDeployableWorkItemHandler.class)));
+
+      // classes of classpath roots without index are found via classpath scan
+      Assert.assertEquals(Collections.singleton("unindexed.Variable"),
+          names(classIndex.getSubTypesOf("unindexed", Serializable.class)));
+    }
+  }
+
+  private Set<String> names(Set<? extends Class<?>> classes) {
+    return classes.stream().map(Class::getName).collect(Collectors.toSet());
+  }
+
+  /**
+   * Compile a source file with or without the class index processor
+   *
+   * @param outputDir the class output dir
+   * @param index     <code>true</code> to run the class index processor
+   * @param className the class name
+   * @param source    the source code
+   */
+  private void compile(Path outputDir, boolean index, String className, String source) throws IOException {
+    Path sourceFile = temporaryFolder.getRoot().toPath().resolve("src").resolve(className.replace('.', '/') + ".java");
+    Files.createDirectories(sourceFile.getParent());
+    Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Assert.assertNotNull("Tests have to run on a JDK", compiler);
+    int result = compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"),
+        "-d", outputDir.toString(), index ? "-processor" : "-proc:none",
+        index ? ClassIndexProcessor.class.getName() : "-nowarn", sourceFile.toString());
+    Assert.assertEquals("Compilation of " + className + " failed", 0, result);
+  }
+
+  public abstract static class TestWorkItemHandler implements IDeployableWorkItemHandler {
+
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.instance;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.arvato.workflow.kie4developer.common.impl.KieClient;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.server.api.exception.KieServicesHttpException;
+import org.kie.server.api.model.instance.ProcessInstance;
+import org.kie.server.client.ProcessServicesClient;
+import org.kie.server.client.QueryServicesClient;
+
+/**
+ * Tests the {@link ProcessInstanceAborter} against a mocked KIE Server that aborts the process instances of a batch in
+ * order
+ */
+public class ProcessInstanceAborterTest {
+
+  private final Set<Long> active = new HashSet<>(); // active process instance ids of the container
+  private final AtomicInteger requests = new AtomicInteger();
+  private ProcessInstanceAborter aborter;
+
+  @Before
+  public void setUp() {
+    ProcessServicesClient processClient = mock(ProcessServicesClient.class);
+    QueryServicesClient queryClient = mock(QueryServicesClient.class);
+    KieClient kieClient = mock(KieClient.class);
+    when(kieClient.getProcessClient()).thenReturn(processClient);
+    when(kieClient.getQueryClient()).thenReturn(queryClient);
+    doAnswer(invocation -> {
+      requests.incrementAndGet();
+      for (Long processInstanceId : (List<Long>) invocation.getArgument(1)) {
+        if (!active.remove(processInstanceId)) {
+          throw new KieServicesHttpException("Not found", 404, "url",
+              "Could not find process instance with id " + processInstanceId);
+        }
+      }
+      return null;
+    }).when(processClient).abortProcessInstances(eq("container"), anyList());
+    when(queryClient.findProcessInstanceById(anyLong())).thenAnswer(invocation -> {
+      ProcessInstance processInstance = new ProcessInstance();
+      processInstance.setId(invocation.getArgument(0));
+      processInstance.setState(active.contains(invocation.getArgument(0))
+          ? org.kie.api.runtime.process.ProcessInstance.STATE_ACTIVE
+          : org.kie.api.runtime.process.ProcessInstance.STATE_ABORTED);
+      return processInstance;
+    });
+    aborter = new ProcessInstanceAborter(kieClient, 100, 1);
+  }
+
+  @Test
+  public void testAbortBatchWithGoneProcessInstances() {
+    List<Long> batch = new ArrayList<>();
+    for (long id = 1; id <= 100; id++) {
+      batch.add(id);
+      // every tenth process instance is already gone
+      if (id % 10 != 0) {
+        active.add(id);
+      }
+    }
+    AtomicLong aborted = new AtomicLong();
+    AtomicLong gone = new AtomicLong();
+
+    aborter.abortBatch("container", batch, aborted, gone);
+
+    Assert.assertTrue(active.isEmpty());
+    Assert.assertEquals(90, aborted.get());
+    Assert.assertEquals(10, gone.get());
+    // one request per gone process instance, not one per process instance
+    Assert.assertEquals(10, requests.get());
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.instance;
+
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.server.api.model.instance.ProcessInstance;
+import org.kie.server.client.QueryServicesClient;
+
+/**
+ * Tests the {@link ProcessInstancePager} against a mocked container
+ */
+public class ProcessInstancePagerTest {
+
+  private final TreeSet<Long> active = new TreeSet<>(); // active process instance ids of the container
+  private int queries;
+  private QueryServicesClient queryClient;
+
+  @Before
+  public void setUp() {
+    queryClient = mock(QueryServicesClient.class);
+    when(queryClient.findProcessInstancesByContainerId(eq("container"), anyList(), anyInt(), anyInt(), anyString(),
+        anyBoolean())).thenAnswer(invocation -> {
+          queries++;
+          int page = invocation.getArgument(2);
+          int pageSize = invocation.getArgument(3);
+          List<ProcessInstance> result = new ArrayList<>();
+          new ArrayList<>(active).stream().skip((long) page * pageSize).limit(pageSize).forEach(id -> {
+            ProcessInstance processInstance = new ProcessInstance();
+            processInstance.setId(id);
+            result.add(processInstance);
+          });
+          return result;
+        });
+    for (long id = 1; id <= 100; id++) {
+      active.add(id);
+    }
+  }
+
+  @Test
+  public void testScan() {
+    ProcessInstancePager pager = ProcessInstancePager.scan(queryClient, "container", 30);
+
+    Assert.assertEquals(100, pager.stream().count());
+  }
+
+  @Test
+  public void testDrainSkipsFailedProcessInstances() {
+    ProcessInstancePager pager = ProcessInstancePager.drain(queryClient, "container", 10);
+    List<Long> returned = new ArrayList<>();
+
+    List<ProcessInstance> page;
+    while (!(page = pager.nextPage()).isEmpty()) {
+      for (ProcessInstance processInstance : page) {
+        returned.add(processInstance.getId());
+        // every third process instance fails and remains in the container
+        if (processInstance.getId() % 3 != 0) {
+          active.remove(processInstance.getId());
+        }
+      }
+    }
+
+    Assert.assertEquals(100, returned.size());
+    Assert.assertEquals(100, new TreeSet<>(returned).size());
+    Assert.assertEquals(33, active.size());
+    // the failed process instances are skipped by page, not re-read from the first page
+    Assert.assertTrue("too many queries: " + queries, queries < 25);
+  }
+
+  @Test
+  public void testDrainWithProcessInstancesLeavingLate() {
+    ProcessInstancePager pager = ProcessInstancePager.drain(queryClient, "container", 10);
+    List<Long> returned = new ArrayList<>();
+    List<Long> inFlight = new ArrayList<>();
+
+    List<ProcessInstance> page;
+    while (!(page = pager.nextPage()).isEmpty()) {
+      // the process instances of the previous page leave only after the next page was read
+      active.removeAll(inFlight);
+      inFlight.clear();
+      for (ProcessInstance processInstance : page) {
+        returned.add(processInstance.getId());
+        inFlight.add(processInstance.getId());
+      }
+    }
+
+    Assert.assertEquals(100, returned.size());
+    Assert.assertEquals(100, new TreeSet<>(returned).size());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.migration;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the additive increase / multiplicative decrease of the {@link AdaptiveLimiter}
+ */
+public class AdaptiveLimiterTest {
+
+  @Test
+  public void testLimitAdaptsToLatency() throws InterruptedException {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(8, 100);
+    Assert.assertEquals(8, limiter.getLimit());
+
+    limiter.acquire();
+    limiter.release(500, true); // slow
+    Assert.assertEquals(4, limiter.getLimit());
+
+    limiter.acquire();
+    limiter.release(10, false); // failed
+    Assert.assertEquals(2, limiter.getLimit());
+
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.release(10, true); // fast
+    }
+    Assert.assertEquals("Limit must not exceed the maximum", 8, limiter.getLimit());
+
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.release(500, true);
+    }
+    Assert.assertEquals("Limit must not drop below one", 1, limiter.getLimit());
+  }
+
+  @Test
+  public void testAcquireBlocksAtLimit() throws InterruptedException {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(1, 100);
+    limiter.acquire();
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread(() -> {
+      try {
+        limiter.acquire();
+        acquired.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    thread.start();
+    Assert.assertFalse("Acquired above the limit", acquired.await(200, TimeUnit.MILLISECONDS));
+    limiter.release(10, true);
+    Assert.assertTrue("Not acquired after release", acquired.await(5, TimeUnit.SECONDS));
+    thread.join();
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.common.impl.migration;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.arvato.workflow.kie4developer.common.impl.KieClient;
+import com.arvato.workflow.kie4developer.common.model.MigrationSummary;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.server.api.model.admin.MigrationReportInstance;
+import org.kie.server.client.admin.ProcessAdminServicesClient;
+
+/**
+ * Tests the {@link MigrationEngine} against a mocked KIE Server
+ */
+public class MigrationEngineTest {
+
+  private ProcessAdminServicesClient processAdminClient;
+  private MigrationEngine migrationEngine;
+
+  @Before
+  public void setUp() {
+    processAdminClient = mock(ProcessAdminServicesClient.class);
+    KieClient kieClient = mock(KieClient.class);
+    when(kieClient.getProcessAdminClient()).thenReturn(processAdminClient);
+    when(processAdminClient.migrateProcessInstances(eq("old"), anyList(), eq("new"), anyString()))
+        .thenAnswer(invocation -> {
+          if ("broken".equals(invocation.getArgument(3))) {
+            throw new IllegalStateException("server error");
+          }
+          List<MigrationReportInstance> reports = new ArrayList<>();
+          for (Long processInstanceId : (List<Long>) invocation.getArgument(1)) {
+            MigrationReportInstance report = new MigrationReportInstance();
+            report.setProcessInstanceId(processInstanceId);
+            report.setSuccessful(true);
+            reports.add(report);
+          }
+          return reports;
+        });
+    migrationEngine = new MigrationEngine(kieClient, 4, 5000);
+  }
+
+  @Test
+  public void testMigrateAllChunks() throws Exception {
+    List<MigrationEngine.Chunk> chunks = new ArrayList<>();
+    for (long i = 0; i < 20; i++) {
+      chunks.add(new MigrationEngine.Chunk("process", Arrays.asList(i * 2, i * 2 + 1)));
+    }
+    chunks.add(new MigrationEngine.Chunk("broken", Arrays.asList(100L, 101L)));
+    List<MigrationReportInstance> reports = Collections.synchronizedList(new ArrayList<>());
+
+    MigrationSummary summary = migrationEngine.migrate("old", "new", chunks.iterator(), reports::add)
+        .get(30, TimeUnit.SECONDS);
+
+    Assert.assertEquals(42, reports.size());
+    Assert.assertEquals(42, summary.getTotal());
+    Assert.assertEquals(40, summary.getSuccessful());
+    Assert.assertEquals(Arrays.asList(100L, 101L), summary.getFailedProcessInstanceIds());
+    Assert.assertFalse(summary.isSuccessful());
+  }
+
+  @Test
+  public void testConsumerErrorCompletesExceptionally() throws Exception {
+    List<MigrationEngine.Chunk> chunks = new ArrayList<>();
+    for (long i = 0; i < 20; i++) {
+      chunks.add(new MigrationEngine.Chunk("process", Collections.singletonList(i)));
+    }
+    IllegalStateException consumerError = new IllegalStateException("consumer failed");
+
+    try {
+      migrationEngine.migrate("old", "new", chunks.iterator(), report -> {
+        throw consumerError;
+      }).get(30, TimeUnit.SECONDS);
+      Assert.fail("Consumer error not propagated");
+    } catch (ExecutionException e) {
+      Assert.assertSame(consumerError, e.getCause());
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.jbpm.process.core.context.variable.VariableScope;
+import org.jbpm.process.instance.ProcessInstance;
+import org.jbpm.process.instance.context.variable.VariableScopeInstance;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessVariableChangedEvent;
+import org.mockito.Mockito;
+
+/**
+ * Tests the {@link ContentStoreMarshallingStrategy} with inline and stored payloads and the cleanup of stored payloads
+ * by the {@link ExternalizedVariableListener}
+ */
+public class ContentStoreMarshallingStrategyTest {
+
+  private static final int THRESHOLD = 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  private String directory;
+  private ContentStoreMarshallingStrategy strategy;
+  private FileSystemContentStore contentStore;
+
+  @Before
+  public void setUp() {
+    directory = folder.getRoot().getAbsolutePath();
+    strategy = new ContentStoreMarshallingStrategy(directory, THRESHOLD);
+    contentStore = new FileSystemContentStore(directory);
+  }
+
+  @Test
+  public void testInline() throws Exception {
+    ExternalizedVariable copy = roundTrip(ExternalizedVariable.of("small"));
+
+    Assert.assertNull(copy.getReference());
+    Assert.assertNotNull(copy.getContent());
+    Assert.assertEquals("small", copy.load());
+    Assert.assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testStored() throws Exception {
+    ArrayList<Integer> payload = largePayload();
+    ExternalizedVariable variable = ExternalizedVariable.of(payload);
+
+    ExternalizedVariable copy = roundTrip(variable);
+
+    Assert.assertNotNull(variable.getReference());
+    Assert.assertEquals(variable.getReference(), copy.getReference());
+    Assert.assertArrayEquals(variable.getContent(), contentStore.load(copy.getReference()));
+    Assert.assertEquals(payload, copy.load());
+  }
+
+  @Test
+  public void testLazyLoad() throws Exception {
+    ArrayList<Integer> payload = largePayload();
+
+    ExternalizedVariable copy = roundTrip(ExternalizedVariable.of(payload));
+
+    // unmarshalling only restores the reference, the payload is read from the content store on load
+    Assert.assertNull(copy.getContent());
+    Assert.assertEquals(payload, copy.load());
+    Assert.assertNotNull(copy.getContent());
+    Assert.assertSame(copy.load(), copy.load());
+  }
+
+  @Test
+  public void testOwners() throws Exception {
+    String reference = contentStore.store(new byte[]{1, 2, 3}, "1-document");
+
+    Assert.assertFalse(contentStore.removeOwner(reference, "1-unknown"));
+    contentStore.addOwner(reference, "2-document");
+    Assert.assertFalse(contentStore.removeOwner(reference, "1-document"));
+    Assert.assertArrayEquals(new byte[]{1, 2, 3}, contentStore.load(reference));
+    Assert.assertTrue(contentStore.removeOwner(reference, "2-document"));
+    assertDeleted(reference);
+    try {
+      contentStore.addOwner(reference, "3-document");
+      Assert.fail("Owner of deleted content registered");
+    } catch (NoSuchFileException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testListenerCleanup() throws Exception {
+    ExternalizedVariableListener listener = new ExternalizedVariableListener(
+        mockTransactionManager(TransactionManager.STATUS_NO_TRANSACTION, new ArrayList<>()), directory, THRESHOLD);
+    ExternalizedVariable first = ExternalizedVariable.of(largePayload());
+    ExternalizedVariable second = ExternalizedVariable.of(new ArrayList<>(Collections.nCopies(1000, 7)));
+    Map<String, Object> variables = new HashMap<>();
+    ProcessInstance processInstance = mockProcessInstance(1L, variables);
+
+    listener.afterVariableChanged(variableChanged(processInstance, "document", null, first));
+    Assert.assertNotNull(first.getReference());
+    listener.afterVariableChanged(variableChanged(processInstance, "document", first, second));
+    assertDeleted(first.getReference());
+    Assert.assertArrayEquals(second.getContent(), contentStore.load(second.getReference()));
+
+    variables.put("document", roundTrip(second));
+    listener.afterProcessCompleted(processCompleted(processInstance));
+    assertDeleted(second.getReference());
+  }
+
+  @Test
+  public void testListenerRollback() throws Exception {
+    List<TransactionSynchronization> synchronizations = new ArrayList<>();
+    ExternalizedVariableListener listener = new ExternalizedVariableListener(
+        mockTransactionManager(TransactionManager.STATUS_ACTIVE, synchronizations), directory, THRESHOLD);
+    ExternalizedVariable variable = ExternalizedVariable.of(largePayload());
+    ProcessInstance processInstance = mockProcessInstance(1L, new HashMap<>());
+
+    listener.afterVariableChanged(variableChanged(processInstance, "document", null, variable));
+    Assert.assertArrayEquals(variable.getContent(), contentStore.load(variable.getReference()));
+    Assert.assertEquals(1, synchronizations.size());
+    synchronizations.get(0).afterCompletion(TransactionManager.STATUS_ROLLEDBACK);
+
+    // the payload was only used by the rolled back transaction
+    assertDeleted(variable.getReference());
+  }
+
+  @Test
+  public void testListenerCommit() throws Exception {
+    List<TransactionSynchronization> synchronizations = new ArrayList<>();
+    ExternalizedVariableListener listener = new ExternalizedVariableListener(
+        mockTransactionManager(TransactionManager.STATUS_ACTIVE, synchronizations), directory, THRESHOLD);
+    ExternalizedVariable variable = ExternalizedVariable.of(largePayload());
+    Map<String, Object> variables = new HashMap<>();
+    ProcessInstance processInstance = mockProcessInstance(1L, variables);
+
+    listener.afterVariableChanged(variableChanged(processInstance, "document", null, variable));
+    synchronizations.remove(0).afterCompletion(TransactionManager.STATUS_COMMITTED);
+    Assert.assertArrayEquals(variable.getContent(), contentStore.load(variable.getReference()));
+
+    variables.put("document", roundTrip(variable));
+    listener = new ExternalizedVariableListener(
+        mockTransactionManager(TransactionManager.STATUS_ACTIVE, synchronizations), directory, THRESHOLD);
+    listener.afterProcessCompleted(processCompleted(processInstance));
+    // the payload is kept until the completion is committed
+    Assert.assertArrayEquals(variable.getContent(), contentStore.load(variable.getReference()));
+    synchronizations.remove(0).afterCompletion(TransactionManager.STATUS_COMMITTED);
+    assertDeleted(variable.getReference());
+  }
+
+  private void assertDeleted(String reference) throws Exception {
+    try {
+      contentStore.load(reference);
+      Assert.fail("Content not deleted");
+    } catch (NoSuchFileException e) {
+      // expected
+    }
+  }
+
+  private ExternalizedVariable roundTrip(ExternalizedVariable variable) throws Exception {
+    byte[] data = strategy.marshal(null, null, variable);
+    return (ExternalizedVariable) strategy.unmarshal(null, null, data, getClass().getClassLoader());
+  }
+
+  private static ArrayList<Integer> largePayload() {
+    ArrayList<Integer> payload = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      payload.add(i);
+    }
+    return payload;
+  }
+
+  private static ProcessInstance mockProcessInstance(long id, Map<String, Object> variables) {
+    VariableScopeInstance variableScope = Mockito.mock(VariableScopeInstance.class);
+    Mockito.when(variableScope.getVariables()).thenReturn(variables);
+    ProcessInstance processInstance = Mockito.mock(ProcessInstance.class);
+    Mockito.when(processInstance.getId()).thenReturn(id);
+    Mockito.when(processInstance.getContextInstance(VariableScope.VARIABLE_SCOPE)).thenReturn(variableScope);
+    return processInstance;
+  }
+
+  private static TransactionManager mockTransactionManager(int status,
+      List<TransactionSynchronization> synchronizations) {
+    Map<Object, Object> resources = new HashMap<>();
+    TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+    Mockito.when(transactionManager.getStatus()).thenReturn(status);
+    Mockito.when(transactionManager.getResource(Mockito.any())).thenAnswer(i -> resources.get(i.getArgument(0)));
+    Mockito.doAnswer(i -> resources.put(i.getArgument(0), i.getArgument(1))).when(transactionManager)
+        .putResource(Mockito.any(), Mockito.any());
+    Mockito.doAnswer(i -> synchronizations.add(i.getArgument(0))).when(transactionManager)
+        .registerTransactionSynchronization(Mockito.any());
+    return transactionManager;
+  }
+
+  private static ProcessCompletedEvent processCompleted(ProcessInstance processInstance) {
+    ProcessCompletedEvent event = Mockito.mock(ProcessCompletedEvent.class);
+    Mockito.when(event.getProcessInstance()).thenReturn(processInstance);
+    return event;
+  }
+
+  private static ProcessVariableChangedEvent variableChanged(ProcessInstance processInstance, String variableId,
+      Object oldValue, Object newValue) {
+    ProcessVariableChangedEvent event = Mockito.mock(ProcessVariableChangedEvent.class);
+    Mockito.when(event.getProcessInstance()).thenReturn(processInstance);
+    Mockito.when(event.getVariableId()).thenReturn(variableId);
+    Mockito.when(event.getOldValue()).thenReturn(oldValue);
+    Mockito.when(event.getNewValue()).thenReturn(newValue);
+    return event;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the round trip of object graphs with the {@link JsonMarshallingStrategy}
+ */
+public class JsonMarshallingStrategyTest {
+
+  private final JsonMarshallingStrategy strategy = new JsonMarshallingStrategy("com.arvato.workflow.kie4developer");
+
+  @Test
+  public void testPolymorphicFields() throws Exception {
+    Customer customer = new Customer();
+    customer.name = "john";
+    customer.payment = new CreditCard("4711");
+    customer.details = new Address("main street");
+    customer.values.add(42L);
+    customer.values.add(new BigDecimal("9.99"));
+    customer.values.add(new Address("second street"));
+    customer.properties.put("since", new Date(0));
+    customer.properties.put("invoices", new LinkedList<>(Collections.singletonList(new Address("po box"))));
+    customer.raw.add(new CreditCard("0815"));
+
+    Customer copy = roundTrip(customer);
+
+    Assert.assertEquals("john", copy.name);
+    Assert.assertEquals(CreditCard.class, copy.payment.getClass());
+    Assert.assertEquals("4711", ((CreditCard) copy.payment).number);
+    Assert.assertEquals(Address.class, copy.details.getClass());
+    Assert.assertEquals(Long.valueOf(42L), copy.values.get(0));
+    Assert.assertEquals(new BigDecimal("9.99"), copy.values.get(1));
+    Assert.assertEquals("second street", ((Address) copy.values.get(2)).street);
+    Assert.assertEquals(new Date(0), copy.properties.get("since"));
+    Assert.assertEquals(LinkedList.class, copy.properties.get("invoices").getClass());
+    Assert.assertEquals("po box", ((Address) ((List<?>) copy.properties.get("invoices")).get(0)).street);
+    Assert.assertEquals(CreditCard.class, copy.raw.get(0).getClass());
+  }
+
+  @Test
+  public void testSharedAndCyclicReferences() throws Exception {
+    Customer customer = new Customer();
+    Address address = new Address("main street");
+    customer.details = address;
+    customer.values.add(address);
+    customer.self = customer;
+
+    Customer copy = roundTrip(customer);
+
+    Assert.assertSame(copy.details, copy.values.get(0));
+    Assert.assertSame(copy, copy.self);
+  }
+
+  @Test
+  public void testAccept() {
+    Assert.assertTrue(strategy.accept(new Customer()));
+    Assert.assertFalse(strategy.accept("string"));
+    // the package prefix ends at a package boundary
+    Assert.assertFalse(new JsonMarshallingStrategy("com.arvato.workflow.kie4dev").accept(new Customer()));
+    // the classes of kie4developer are not accepted for the serializable classes of a release
+    Assert.assertFalse(new JsonMarshallingStrategy("com.arvato.workflow").accept(new Customer()));
+  }
+
+  private Customer roundTrip(Customer customer) throws Exception {
+    Assert.assertTrue("Variable not accepted", strategy.accept(customer));
+    byte[] data = strategy.marshal(null, null, customer);
+    return (Customer) strategy.unmarshal(null, null, data, getClass().getClassLoader());
+  }
+
+  public interface Payment {
+
+  }
+
+  public abstract static class Details {
+
+  }
+
+  public static class Customer {
+
+    private String name;
+    private Payment payment;
+    private Details details;
+    private Object self;
+    private List<Object> values = new ArrayList<>();
+    private Map<String, Object> properties = new HashMap<>();
+    private List raw = new ArrayList();
+  }
+
+  public static class CreditCard implements Payment {
+
+    private String number;
+
+    public CreditCard() {
+    }
+
+    CreditCard(String number) {
+      this.number = number;
+    }
+  }
+
+  public static class Address extends Details {
+
+    private String street;
+
+    public Address() {
+    }
+
+    Address(String street) {
+      this.street = street;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.marshalling;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.drools.core.marshalling.impl.ClassObjectMarshallingStrategyAcceptor;
+import org.drools.core.marshalling.impl.SerializablePlaceholderResolverStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.marshalling.ObjectMarshallingStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares size and marshalling time of a large process variable for the JSON marshalling strategy and the default
+ * java serialization strategy
+ */
+public class MarshallingStrategyTestPerformance {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MarshallingStrategyTestPerformance.class);
+  private static final int WARMUP_COUNT = 2000;
+  private static final int ITERATION_COUNT = 10000;
+
+  @Test
+  public void testMarshallingStrategies() throws Exception {
+    Order order = new Order();
+    order.id = "4711";
+    for (int i = 0; i < 200; i++) {
+      OrderItem item = new OrderItem();
+      item.sku = "SKU-" + i;
+      item.quantity = i;
+      item.price = i * 0.99;
+      order.items.add(item);
+    }
+    ClassLoader classLoader = getClass().getClassLoader();
+    ObjectMarshallingStrategy json = new JsonMarshallingStrategy("com.arvato.workflow.kie4developer");
+    ObjectMarshallingStrategy serializable = new SerializablePlaceholderResolverStrategy(
+        ClassObjectMarshallingStrategyAcceptor.DEFAULT);
+
+    for (ObjectMarshallingStrategy strategy : new ObjectMarshallingStrategy[]{serializable, json}) {
+      Assert.assertTrue("Variable not accepted", strategy.accept(order));
+      byte[] data = strategy.marshal(null, null, order);
+      Order copy = (Order) strategy.unmarshal(null, null, data, classLoader);
+      Assert.assertEquals("Variable changed", order.items.size(), copy.items.size());
+      Assert.assertEquals("Variable changed", order.items.get(199).sku, copy.items.get(199).sku);
+
+      for (int i = 0; i < WARMUP_COUNT; i++) {
+        strategy.unmarshal(null, null, strategy.marshal(null, null, order), classLoader);
+      }
+      long marshalTime = 0;
+      long unmarshalTime = 0;
+      for (int i = 0; i < ITERATION_COUNT; i++) {
+        long start = System.nanoTime();
+        data = strategy.marshal(null, null, order);
+        long marshalled = System.nanoTime();
+        strategy.unmarshal(null, null, data, classLoader);
+        unmarshalTime += System.nanoTime() - marshalled;
+        marshalTime += marshalled - start;
+      }
+      LOGGER.info("{}: {} bytes, marshal {}us, unmarshal {}us", strategy.getClass().getSimpleName(), data.length,
+          marshalTime / ITERATION_COUNT / 1000.0, unmarshalTime / ITERATION_COUNT / 1000.0);
+    }
+  }
+
+  public static class Order implements Serializable {
+
+    private String id;
+    private List<OrderItem> items = new ArrayList<>();
+  }
+
+  public static class OrderItem implements Serializable {
+
+    private String sku;
+    private int quantity;
+    private double price;
+  }
+}
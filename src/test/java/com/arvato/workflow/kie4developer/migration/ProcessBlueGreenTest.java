@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.migration;
+
+import static org.mockito.Mockito.when;
+
+import com.arvato.workflow.kie4developer.AbstractProcessTest;
+import com.arvato.workflow.kie4developer.basic.HelloWorldProcess;
+import com.arvato.workflow.kie4developer.basic.HelloWorldWorkItemHandler;
+import com.arvato.workflow.kie4developer.common.interfaces.IRelease;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.api.model.instance.ProcessInstance;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+        "spring.application.autodeploy=false",
+        "global.test=Bonjour"
+    })
+public class ProcessBlueGreenTest extends AbstractProcessTest {
+
+  @SpyBean
+  private IRelease mockRelease;
+
+  @Before
+  public void prepare() {
+    // prepare and deploy the old release
+    clientDeploymentHelper.setProcessesToDeploy(Collections.singletonList(HelloWorldProcess.class));
+    clientDeploymentHelper.setWorkItemHandlersToDeploy(Collections.singletonList(HelloWorldWorkItemHandler.class));
+    clientDeploymentHelper.setDependenciesToDeploy(new ArrayList<>());
+    clientDeploymentHelper.deploy(true);
+  }
+
+  @After
+  public void dispose() {
+    when(mockRelease.getVersion()).thenReturn("7.23.1.Final");
+    clientDeploymentHelper.undeploy(true);
+    when(mockRelease.getVersion()).thenCallRealMethod(); // remove mock
+    clientDeploymentHelper.undeploy(true);
+  }
+
+  @Test
+  public void testAliasRoutesToNewContainer() {
+    String oldContainerId = clientDeploymentHelper.getRelease().getContainerId();
+    String containerAlias = clientDeploymentHelper.getRelease().getContainerAlias();
+    String processId = new HelloWorldProcess().getProcessId();
+    Map<String, Object> params = new HashMap<>();
+    params.put("employee", "john");
+    params.put("reason", "test on spring boot");
+
+    // the alias is routed to the old container
+    Long processInstanceId = kieClient.getProcessClient().startProcess(containerAlias, processId, params);
+    ProcessInstance processInstance = kieClient.getProcessClient().getProcessInstance(oldContainerId, processInstanceId);
+    Assert.assertEquals("Alias was not routed to the old container", oldContainerId, processInstance.getContainerId());
+
+    // blue/green deployment of a higher version
+    when(mockRelease.getVersion()).thenReturn("7.23.1.Final"); // fake new release version
+    String containerId = clientDeploymentHelper.getRelease().getContainerId();
+    Assert.assertTrue("Blue/green deployment failed", clientDeploymentHelper.deployBlueGreen(oldContainerId));
+    Assert.assertEquals("Container was not started", KieContainerStatus.STARTED, getContainer(containerId).getStatus());
+    Assert.assertEquals("Old container was undeployed", KieContainerStatus.STARTED,
+        getContainer(oldContainerId).getStatus());
+
+    // the alias is routed to the new container
+    processInstanceId = kieClient.getProcessClient().startProcess(containerAlias, processId, params);
+    processInstance = kieClient.getProcessClient().getProcessInstance(containerId, processInstanceId);
+    Assert.assertEquals("Alias was not routed to the new container", containerId, processInstance.getContainerId());
+  }
+
+  @Test
+  public void testRejectExistingContainer() {
+    String containerId = clientDeploymentHelper.getRelease().getContainerId();
+
+    // the container of the release is already deployed, so it must not be replaced (or rolled back)
+    Assert.assertFalse("Blue/green deployment to the old container", clientDeploymentHelper.deployBlueGreen(containerId));
+    Assert.assertEquals("Existing container was removed", KieContainerStatus.STARTED,
+        getContainer(containerId).getStatus());
+
+    // a release version that is not higher than the old version would not get the alias routed to it
+    when(mockRelease.getVersion()).thenReturn("7.22.0.Final");
+    Assert.assertFalse("Blue/green deployment of a lower version", clientDeploymentHelper.deployBlueGreen(containerId));
+    Assert.assertNull("Container of the lower version was created",
+        getContainer(clientDeploymentHelper.getRelease().getContainerId()));
+    when(mockRelease.getVersion()).thenCallRealMethod(); // remove mock
+  }
+}
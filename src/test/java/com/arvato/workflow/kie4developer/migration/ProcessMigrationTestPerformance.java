@@ -21,6 +21,8 @@ import com.arvato.workflow.kie4developer.AbstractProcessTest;
 import com.arvato.workflow.kie4developer.basic.HelloWorldProcess;
 import com.arvato.workflow.kie4developer.basic.HelloWorldWorkItemHandler;
 import com.arvato.workflow.kie4developer.common.interfaces.IRelease;
+import com.arvato.workflow.kie4developer.common.model.ProcessStartRequest;
+import com.arvato.workflow.kie4developer.common.model.ProcessStartResult;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -94,9 +96,12 @@ public class ProcessMigrationTestPerformance extends AbstractProcessTest {
     params.put("employee", "john");
     params.put("reason", "test on spring boot");
 
+    List<ProcessStartRequest> startRequests = new ArrayList<>();
     for (int i=0; i<processInstanceCount; i++){
-      Long processInstanceId = clientExecutionHelper.startNewProcessInstance(containerId, processId, params);
-      Assert.assertNotNull("Process was not executed", processInstanceId);
+      startRequests.add(new ProcessStartRequest(processId, params));
+    }
+    for (ProcessStartResult startResult : clientExecutionHelper.startNewProcessInstances(containerId, startRequests)) {
+      Assert.assertNotNull("Process was not executed", startResult.getProcessInstanceId());
     }
 
     // deploy with migration
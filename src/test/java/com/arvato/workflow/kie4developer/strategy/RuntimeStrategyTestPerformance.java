@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 Arvato Systems GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arvato.workflow.kie4developer.strategy;
+
+import static org.mockito.Mockito.when;
+
+import com.arvato.workflow.kie4developer.AbstractProcessTest;
+import com.arvato.workflow.kie4developer.basic.HelloWorldProcess;
+import com.arvato.workflow.kie4developer.basic.HelloWorldWorkItemHandler;
+import com.arvato.workflow.kie4developer.common.interfaces.IRelease;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kie.internal.runtime.conf.RuntimeStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Compares throughput and latency of process starts for the runtime strategies on the embedded server
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+        "spring.application.autodeploy=false",
+        "global.test=Bonjour"
+    })
+public class RuntimeStrategyTestPerformance extends AbstractProcessTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RuntimeStrategyTestPerformance.class);
+  private static final int WARMUP_COUNT = 50;
+  private static final int PROCESS_INSTANCE_COUNT = 500;
+
+  @SpyBean
+  private IRelease mockRelease;
+
+  @After
+  public void dispose() {
+    clientDeploymentHelper.undeploy(true);
+  }
+
+  @Test
+  public void testProcessStartsPerRuntimeStrategy() {
+    for (RuntimeStrategy runtimeStrategy : Arrays
+        .asList(RuntimeStrategy.SINGLETON, RuntimeStrategy.PER_REQUEST, RuntimeStrategy.PER_PROCESS_INSTANCE)) {
+      when(mockRelease.getRuntimeStrategy()).thenReturn(runtimeStrategy);
+      clientDeploymentHelper.setProcessesToDeploy(Collections.singletonList(HelloWorldProcess.class));
+      clientDeploymentHelper.setWorkItemHandlersToDeploy(Collections.singletonList(HelloWorldWorkItemHandler.class));
+      clientDeploymentHelper.setDependenciesToDeploy(new ArrayList<>());
+      Assert.assertTrue("Deployment failed", clientDeploymentHelper.deploy(true));
+      String containerId = clientDeploymentHelper.getRelease().getContainerId();
+      String processId = new HelloWorldProcess().getProcessId();
+
+      Map<String, Object> params = new HashMap<>();
+      params.put("employee", "john");
+      params.put("reason", "test on spring boot");
+      for (int i = 0; i < WARMUP_COUNT; i++) {
+        clientExecutionHelper.startNewProcessInstance(containerId, processId, params);
+      }
+
+      long[] latencies = new long[PROCESS_INSTANCE_COUNT];
+      long start = System.nanoTime();
+      for (int i = 0; i < PROCESS_INSTANCE_COUNT; i++) {
+        long startInstance = System.nanoTime();
+        Long processInstanceId = clientExecutionHelper.startNewProcessInstance(containerId, processId, params);
+        latencies[i] = System.nanoTime() - startInstance;
+        Assert.assertNotNull("Process was not executed", processInstanceId);
+      }
+      long duration = System.nanoTime() - start;
+      Arrays.sort(latencies);
+      LOGGER.info("{}: {} starts/s, latency p50 {}ms, p99 {}ms, max {}ms", runtimeStrategy,
+          PROCESS_INSTANCE_COUNT * 1_000_000_000L / duration, latencies[PROCESS_INSTANCE_COUNT / 2] / 1_000_000.0,
+          latencies[PROCESS_INSTANCE_COUNT * 99 / 100] / 1_000_000.0, latencies[PROCESS_INSTANCE_COUNT - 1] / 1_000_000.0);
+
+      Assert.assertTrue("Undeployment failed", clientDeploymentHelper.undeploy(true));
+    }
+  }
+}